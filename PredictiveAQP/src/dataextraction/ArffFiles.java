@@ -0,0 +1,538 @@
+package dataextraction;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reading and writing of (plain or gzipped, see CompressedFiles) arff files without going through weka Instances.
+ * writeArff converts a csv export into an arff file. The csv is streamed three times: once to find which columns are
+ * numeric, once to collect the values of the nominal columns, and once to write the rows. Memory grows with the
+ * number of distinct nominal values, not with the number of rows.
+ * readArff parses an arff file with nominal and numeric attributes straight into a ColumnarDataset, parsing chunks
+ * of CHUNKLINES data lines in parallel. ColumnarDataset.toInstances hands the result to weka where it is needed.
+ */
+public class ArffFiles {
+	public final static String MISSING = "?";
+	public final static String GOODVALUE = "good";
+	public final static String BADVALUE = "bad";
+	public final static String ARFFEXTENSION = ".arff";
+	public final static int CHUNKLINES = 1 << 14;
+
+	/**
+	 * True if fileLocation can be read by readArff, i.e. is a (gzipped) arff file.
+	 */
+	public static boolean isArff (String fileLocation) {
+		return fileLocation.endsWith(ARFFEXTENSION) || fileLocation.endsWith(ARFFEXTENSION + CompressedFiles.GZIPEXTENSION)
+				|| fileLocation.endsWith(ARFFEXTENSION + CompressedFiles.BLOCKGZIPEXTENSION);
+	}
+
+	/**
+	 * Reads the arff file at fileLocation, with class attribute target, into a ColumnarDataset. Data lines are
+	 * parsed on numThreads threads, CHUNKLINES at a time. Only nominal and numeric (real, integer) attributes in the
+	 * dense format are supported; the class attribute must be nominal.
+	 */
+	public static ColumnarDataset readArff (final String fileLocation, int target, int numThreads) throws IOException {
+		BufferedReader br = CompressedFiles.openReader(fileLocation);
+		String relationName = "";
+		final List<String> names = new ArrayList<String>();
+		final List<String[]> nominalValues = new ArrayList<String[]>();
+		String s;
+		long line = 0;
+		boolean data = false;
+		while (!data && (s = br.readLine()) != null) {
+			line++;
+			s = s.trim();
+			if (s.equals("") || s.startsWith("%")) {
+				continue;
+			}
+			final String lower = s.toLowerCase();
+			if (lower.startsWith("@relation")) {
+				relationName = unquote(s.substring("@relation".length()).trim());
+			} else if (lower.startsWith("@attribute")) {
+				final String rest = s.substring("@attribute".length()).trim();
+				final int nameEnd = tokenEnd(rest, 0);
+				final String type = rest.substring(nameEnd).trim();
+				names.add(unquote(rest.substring(0, nameEnd)));
+				if (type.startsWith("{") && type.endsWith("}")) {
+					nominalValues.add(arffSplit(type.substring(1, type.length() - 1)));
+				} else if (type.equalsIgnoreCase("numeric") || type.equalsIgnoreCase("real") || type.equalsIgnoreCase("integer")) {
+					nominalValues.add(null);
+				} else {
+					br.close();
+					throw new IOException(fileLocation + " line " + line + ": attribute type " + type + " not supported");
+				}
+			} else if (lower.startsWith("@data")) {
+				data = true;
+			}
+		}
+		final int numAttributes = names.size();
+		if (!data || target < 0 || target >= numAttributes || nominalValues.get(target) == null) {
+			br.close();
+			throw new IOException(fileLocation + ": no data section, or class attribute " + target + " is not nominal");
+		}
+		final List<Map<String, Integer>> codes = new ArrayList<Map<String, Integer>>(numAttributes);
+		for (int a = 0; a < numAttributes; a++) {
+			Map<String, Integer> map = null;
+			if (nominalValues.get(a) != null) {
+				map = new HashMap<String, Integer>();
+				for (int v = 0; v < nominalValues.get(a).length; v++) {
+					map.put(nominalValues.get(a)[v], v);
+				}
+			}
+			codes.add(map);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<Object[]>> futures = new ArrayList<Future<Object[]>>();
+		try {
+			List<String> chunk = new ArrayList<String>(CHUNKLINES);
+			long chunkLine = line + 1;
+			while (true) {
+				s = br.readLine();
+				if (s != null) {
+					chunk.add(s);
+				}
+				if ((s == null && !chunk.isEmpty()) || chunk.size() == CHUNKLINES) {
+					final List<String> lines = chunk;
+					final long firstLine = chunkLine;
+					futures.add(executor.submit(new Callable<Object[]>() {
+						@Override
+						public Object[] call() throws IOException {
+							return parseChunk(lines, firstLine, codes, fileLocation);
+						}
+					}));
+					chunkLine += chunk.size();
+					chunk = new ArrayList<String>(CHUNKLINES);
+				}
+				if (s == null) {
+					break;
+				}
+			}
+			br.close();
+
+			List<Object[]> chunks = new ArrayList<Object[]>(futures.size());
+			int numRows = 0;
+			for (Future<Object[]> future : futures) {
+				final Object[] parsed = future.get();
+				chunks.add(parsed);
+				numRows += (Integer) parsed[2];
+			}
+			int[][] nominalColumns = new int[numAttributes][];
+			double[][] numericColumns = new double[numAttributes][];
+			for (int a = 0; a < numAttributes; a++) {
+				if (codes.get(a) != null) {
+					nominalColumns[a] = new int[numRows];
+				} else {
+					numericColumns[a] = new double[numRows];
+				}
+			}
+			int offset = 0;
+			for (final Object[] parsed : chunks) {
+				final int[][] chunkNominal = (int[][]) parsed[0];
+				final double[][] chunkNumeric = (double[][]) parsed[1];
+				final int chunkRows = (Integer) parsed[2];
+				for (int a = 0; a < numAttributes; a++) {
+					if (nominalColumns[a] != null) {
+						System.arraycopy(chunkNominal[a], 0, nominalColumns[a], offset, chunkRows);
+					} else {
+						System.arraycopy(chunkNumeric[a], 0, numericColumns[a], offset, chunkRows);
+					}
+				}
+				offset += chunkRows;
+			}
+			return new ColumnarDataset(relationName, numRows, target, names.toArray(new String[numAttributes]),
+					nominalValues.toArray(new String[numAttributes][]), nominalColumns, numericColumns);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing " + fileLocation);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to parse " + fileLocation, e.getCause());
+		} finally {
+			br.close();
+			executor.shutdown();
+		}
+	}
+
+	public static ColumnarDataset readArff (String fileLocation, int target) throws IOException {
+		return readArff(fileLocation, target, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parses data lines into {int[][] nominal codes, double[][] numeric values, Integer number of rows}, column by
+	 * column like ColumnarDataset. Blank and comment lines are skipped.
+	 */
+	private static Object[] parseChunk (List<String> lines, long firstLine, List<Map<String, Integer>> codes,
+			String fileLocation) throws IOException {
+		final int numAttributes = codes.size();
+		int[][] nominal = new int[numAttributes][];
+		double[][] numeric = new double[numAttributes][];
+		for (int a = 0; a < numAttributes; a++) {
+			if (codes.get(a) != null) {
+				nominal[a] = new int[lines.size()];
+			} else {
+				numeric[a] = new double[lines.size()];
+			}
+		}
+		int numRows = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			final String s = lines.get(i).trim();
+			if (s.equals("") || s.startsWith("%")) {
+				continue;
+			}
+			if (s.startsWith("{")) {
+				throw new IOException(fileLocation + " line " + (firstLine + i) + ": sparse rows not supported");
+			}
+			final String[] fields = arffSplit(s);
+			if (fields.length != numAttributes) {
+				throw new IOException(fileLocation + " line " + (firstLine + i) + ": " + fields.length + " values, expected " 
+						+ numAttributes);
+			}
+			for (int a = 0; a < numAttributes; a++) {
+				if (nominal[a] != null) {
+					if (fields[a] == null) {
+						nominal[a][numRows] = -1;
+					} else {
+						final Integer code = codes.get(a).get(fields[a]);
+						if (code == null) {
+							throw new IOException(fileLocation + " line " + (firstLine + i) + ": undeclared value " + fields[a]);
+						}
+						nominal[a][numRows] = code;
+					}
+				} else if (fields[a] == null) {
+					numeric[a][numRows] = Double.NaN;
+				} else {
+					try {
+						numeric[a][numRows] = Double.parseDouble(fields[a]);
+					} catch (NumberFormatException e) {
+						throw new IOException(fileLocation + " line " + (firstLine + i) + ": bad number " + fields[a]);
+					}
+				}
+			}
+			numRows++;
+		}
+		return new Object[] {nominal, numeric, numRows};
+	}
+
+	/**
+	 * Splits an arff data line (or nominal value list) on commas. Values may be single or double quoted, with
+	 * backslash escapes inside quotes. An unquoted ? (missing) is returned as null.
+	 */
+	static String[] arffSplit (String s) {
+		List<String> fields = new ArrayList<String>();
+		int i = 0;
+		while (i <= s.length()) {
+			while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+				i++;
+			}
+			final int end = tokenEnd(s, i);
+			final String token = s.substring(i, end);
+			fields.add(token.equals(MISSING) ? null : unquote(token));
+			i = end;
+			while (i < s.length() && s.charAt(i) != ',') {
+				i++;
+			}
+			i++;
+		}
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/**
+	 * End of the token of s starting at start: a quoted string, or everything up to the next comma or whitespace.
+	 */
+	private static int tokenEnd (String s, int start) {
+		if (start < s.length() && (s.charAt(start) == '\'' || s.charAt(start) == '"')) {
+			final char quote = s.charAt(start);
+			int i = start + 1;
+			while (i < s.length() && s.charAt(i) != quote) {
+				i += s.charAt(i) == '\\' ? 2 : 1;
+			}
+			return Math.min(i + 1, s.length());
+		}
+		int i = start;
+		while (i < s.length() && s.charAt(i) != ',' && !Character.isWhitespace(s.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Removes the quotes (and backslash escapes) from a quoted arff token, the inverse of quote. Unquoted tokens are
+	 * returned as they are.
+	 */
+	static String unquote (String token) {
+		if (token.length() < 2 || (token.charAt(0) != '\'' && token.charAt(0) != '"')) {
+			return token;
+		}
+		StringBuilder sb = new StringBuilder(token.length());
+		for (int i = 1; i < token.length() - 1; i++) {
+			char ch = token.charAt(i);
+			if (ch == '\\' && i + 1 < token.length() - 1) {
+				ch = token.charAt(++i);
+				ch = ch == 't' ? '\t' : ch == 'r' ? '\r' : ch == 'n' ? '\n' : ch;
+			}
+			sb.append(ch);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the csv file at csvLocation (first line: column names) as an arff file at arffLocation. Column target is
+	 * the class: its values in goodTargets become "good" and those in badTargets "bad", declared as {good,bad} in that
+	 * order (so "good" is the UDF value we want to select). Rows whose class is in ignoreTargets, missing, or in none
+	 * of the sets are dropped. Only the first maxAttributes columns and the class are written (all if null). Empty
+	 * fields and "?" are missing values, and a column is numeric if all its other values parse as numbers.
+	 */
+	public static void writeArff (String csvLocation, String arffLocation, int target, Set<String> ignoreTargets,
+			Set<String> goodTargets, Set<String> badTargets, Integer maxAttributes) throws IOException {
+		// Pass 1: column names and types.
+		BufferedReader br = CompressedFiles.openReader(csvLocation);
+		String s = br.readLine();
+		if (s == null) {
+			br.close();
+			throw new IOException("Empty csv file " + csvLocation);
+		}
+		final String[] names = csvSplit(s);
+		final int numColumns = names.length;
+		boolean[] selected = new boolean[numColumns];
+		for (int c = 0; c < numColumns; c++) {
+			selected[c] = c == target || maxAttributes == null || c < maxAttributes;
+		}
+		boolean[] numeric = new boolean[numColumns];
+		for (int c = 0; c < numColumns; c++) {
+			numeric[c] = c != target;
+		}
+		long line = 1;
+		while ((s = br.readLine()) != null) {
+			line++;
+			final String[] fields = rowFields(s, numColumns, csvLocation, line);
+			if (fields == null || classValue(fields[target], ignoreTargets, goodTargets, badTargets) == null) {
+				continue;
+			}
+			for (int c = 0; c < numColumns; c++) {
+				if (numeric[c] && !isMissing(fields[c]) && !isNumber(fields[c])) {
+					numeric[c] = false;
+				}
+			}
+		}
+		br.close();
+
+		// Pass 2: values of the nominal columns, in order of first appearance.
+		List<Set<String>> values = new ArrayList<Set<String>>(numColumns);
+		for (int c = 0; c < numColumns; c++) {
+			values.add(selected[c] && !numeric[c] && c != target ? new LinkedHashSet<String>() : null);
+		}
+		br = CompressedFiles.openReader(csvLocation);
+		br.readLine();
+		line = 1;
+		while ((s = br.readLine()) != null) {
+			line++;
+			final String[] fields = rowFields(s, numColumns, csvLocation, line);
+			if (fields == null || classValue(fields[target], ignoreTargets, goodTargets, badTargets) == null) {
+				continue;
+			}
+			for (int c = 0; c < numColumns; c++) {
+				if (values.get(c) != null && !isMissing(fields[c])) {
+					values.get(c).add(fields[c]);
+				}
+			}
+		}
+		br.close();
+
+		// Pass 3: header, then the rows as they are read.
+		PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(arffLocation), 1 << 16));
+		String relation = new File(csvLocation).getName();
+		if (relation.indexOf('.') > 0) {
+			relation = relation.substring(0, relation.indexOf('.'));
+		}
+		pw.println("@relation " + quote(relation));
+		pw.println();
+		for (int c = 0; c < numColumns; c++) {
+			if (!selected[c]) {
+				continue;
+			}
+			pw.print("@attribute " + quote(names[c]) + " ");
+			if (c == target) {
+				pw.println("{" + GOODVALUE + "," + BADVALUE + "}");
+			} else if (numeric[c]) {
+				pw.println("numeric");
+			} else {
+				StringBuilder sb = new StringBuilder("{");
+				for (final String value : values.get(c)) {
+					if (sb.length() > 1) {
+						sb.append(',');
+					}
+					sb.append(quote(value));
+				}
+				pw.println(sb.append('}'));
+			}
+		}
+		values = null;
+		pw.println();
+		pw.println("@data");
+		br = CompressedFiles.openReader(csvLocation);
+		br.readLine();
+		line = 1;
+		StringBuilder row = new StringBuilder();
+		while ((s = br.readLine()) != null) {
+			line++;
+			final String[] fields = rowFields(s, numColumns, csvLocation, line);
+			if (fields == null) {
+				continue;
+			}
+			final String classValue = classValue(fields[target], ignoreTargets, goodTargets, badTargets);
+			if (classValue == null) {
+				continue;
+			}
+			row.setLength(0);
+			for (int c = 0; c < numColumns; c++) {
+				if (!selected[c]) {
+					continue;
+				}
+				if (row.length() > 0) {
+					row.append(',');
+				}
+				if (c == target) {
+					row.append(classValue);
+				} else if (isMissing(fields[c])) {
+					row.append(MISSING);
+				} else {
+					row.append(numeric[c] ? fields[c] : quote(fields[c]));
+				}
+			}
+			pw.println(row);
+		}
+		br.close();
+		pw.close();
+	}
+
+	/**
+	 * "good", "bad", or null if the row is to be dropped.
+	 */
+	private static String classValue (String value, Set<String> ignoreTargets, Set<String> goodTargets, Set<String> badTargets) {
+		if (isMissing(value) || ignoreTargets.contains(value)) {
+			return null;
+		} else if (goodTargets.contains(value)) {
+			return GOODVALUE;
+		} else if (badTargets.contains(value)) {
+			return BADVALUE;
+		}
+		return null;
+	}
+
+	/**
+	 * Fields of a data line, or null for a blank line. A line with the wrong number of fields is an error.
+	 */
+	private static String[] rowFields (String s, int numColumns, String csvLocation, long line) throws IOException {
+		if (s.trim().equals("")) {
+			return null;
+		}
+		final String[] fields = csvSplit(s);
+		if (fields.length != numColumns) {
+			throw new IOException(csvLocation + " line " + line + ": " + fields.length + " fields, expected " + numColumns);
+		}
+		return fields;
+	}
+
+	/**
+	 * Splits a csv line on commas. Fields may be double quoted, with "" standing for a quote inside a quoted field.
+	 * Unquoted fields are trimmed.
+	 */
+	static String[] csvSplit (String s) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		boolean wasQuoted = false;
+		for (int i = 0; i < s.length(); i++) {
+			final char ch = s.charAt(i);
+			if (quoted) {
+				if (ch == '"') {
+					if (i + 1 < s.length() && s.charAt(i + 1) == '"') {
+						field.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					field.append(ch);
+				}
+			} else if (ch == '"') {
+				quoted = true;
+				wasQuoted = true;
+			} else if (ch == ',') {
+				fields.add(wasQuoted ? field.toString() : field.toString().trim());
+				field.setLength(0);
+				wasQuoted = false;
+			} else {
+				field.append(ch);
+			}
+		}
+		fields.add(wasQuoted ? field.toString() : field.toString().trim());
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	private static boolean isMissing (String value) {
+		return value.equals("") || value.equals(MISSING);
+	}
+
+	private static boolean isNumber (String value) {
+		try {
+			final double x = Double.parseDouble(value);
+			return !Double.isNaN(x) && !Double.isInfinite(x);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Quotes an arff name or nominal value with single quotes if it contains characters that arff treats specially.
+	 */
+	static String quote (String value) {
+		boolean needsQuotes = value.equals("") || value.equals(MISSING);
+		for (int i = 0; i < value.length() && !needsQuotes; i++) {
+			needsQuotes = " ,'\"%{}\t\r\n\\".indexOf(value.charAt(i)) >= 0;
+		}
+		if (!needsQuotes) {
+			return value;
+		}
+		StringBuilder sb = new StringBuilder(value.length() + 2).append('\'');
+		for (int i = 0; i < value.length(); i++) {
+			final char ch = value.charAt(i);
+			switch (ch) {
+			case '\'':
+			case '\\':
+				sb.append('\\').append(ch);
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			default:
+				sb.append(ch);
+			}
+		}
+		return sb.append('\'').toString();
+	}
+}
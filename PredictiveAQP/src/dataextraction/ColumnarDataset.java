@@ -0,0 +1,253 @@
+package dataextraction;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * A dataset held column by column in primitive arrays. Nominal attributes are stored as int codes into their value
+ * list (-1 for missing), numeric attributes as doubles (NaN for missing). The class attribute is nominal, and a row
+ * is positive if its class code is 0, i.e. the first class value (the UDF value we want to select).
+ */
+public class ColumnarDataset implements Serializable {
+	private static final long serialVersionUID = 1L;
+	public final static int MAXONEHOTVALUES = 50;
+	public final static int DEFAULTHASHBUCKETS = 32;
+
+	final String relationName;
+	final int numRows;
+	final int classIndex;
+	final String[] names;
+	final String[][] nominalValues; // null for numeric attributes.
+	final int[][] nominalColumns; // null for numeric attributes.
+	final double[][] numericColumns; // null for nominal attributes.
+
+	public ColumnarDataset (String relationName, int numRows, int classIndex, String[] names, String[][] nominalValues,
+			int[][] nominalColumns, double[][] numericColumns) {
+		this.relationName = relationName;
+		this.numRows = numRows;
+		this.classIndex = classIndex;
+		this.names = names;
+		this.nominalValues = nominalValues;
+		this.nominalColumns = nominalColumns;
+		this.numericColumns = numericColumns;
+	}
+
+	/**
+	 * Copies a weka dataset into columns. instances must have its class index set.
+	 */
+	public static ColumnarDataset fromInstances (Instances instances) {
+		final int numAttributes = instances.numAttributes();
+		final int numRows = instances.numInstances();
+		String[] names = new String[numAttributes];
+		String[][] nominalValues = new String[numAttributes][];
+		int[][] nominalColumns = new int[numAttributes][];
+		double[][] numericColumns = new double[numAttributes][];
+		for (int a = 0; a < numAttributes; a++) {
+			final Attribute attr = instances.attribute(a);
+			names[a] = attr.name();
+			if (attr.isNumeric()) {
+				numericColumns[a] = new double[numRows];
+			} else {
+				nominalValues[a] = new String[attr.numValues()];
+				for (int v = 0; v < attr.numValues(); v++) {
+					nominalValues[a][v] = attr.value(v);
+				}
+				nominalColumns[a] = new int[numRows];
+			}
+		}
+		for (int i = 0; i < numRows; i++) {
+			final Instance instance = instances.instance(i);
+			for (int a = 0; a < numAttributes; a++) {
+				final boolean missing = instance.isMissing(a);
+				if (numericColumns[a] != null) {
+					numericColumns[a][i] = missing ? Double.NaN : instance.value(a);
+				} else {
+					nominalColumns[a][i] = missing ? -1 : (int) instance.value(a);
+				}
+			}
+		}
+		return new ColumnarDataset(instances.relationName(), numRows, instances.classIndex(), names, nominalValues,
+				nominalColumns, numericColumns);
+	}
+
+	/**
+	 * A weka dataset with the given rows and the attributes selected by mask (the class attribute is always kept).
+	 * For classifiers that need Instances. Only the selected rows and attributes are copied.
+	 */
+	public Instances toInstances (int[] rows, boolean[] mask) {
+		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		int[] selected = new int[numAttributes()];
+		int newClassIndex = -1;
+		for (int a = 0; a < numAttributes(); a++) {
+			if (!mask[a] && a != classIndex) {
+				continue;
+			}
+			if (a == classIndex) {
+				newClassIndex = attributes.size();
+			}
+			selected[attributes.size()] = a;
+			attributes.add(isNominal(a) ? new Attribute(names[a], Arrays.asList(nominalValues[a])) : new Attribute(names[a]));
+		}
+		Instances instances = new Instances(relationName, attributes, rows.length);
+		for (final int row : rows) {
+			double[] values = new double[attributes.size()];
+			for (int j = 0; j < values.length; j++) {
+				final int a = selected[j];
+				if (isNominal(a)) {
+					values[j] = nominalColumns[a][row] >= 0 ? nominalColumns[a][row] : Utils.missingValue();
+				} else {
+					values[j] = Double.isNaN(numericColumns[a][row]) ? Utils.missingValue() : numericColumns[a][row];
+				}
+			}
+			instances.add(new DenseInstance(1.0, values));
+		}
+		instances.setClassIndex(newClassIndex);
+		return instances;
+	}
+
+	public int numRows () {
+		return numRows;
+	}
+
+	public int numAttributes () {
+		return names.length;
+	}
+
+	public int classIndex () {
+		return classIndex;
+	}
+
+	public String name (int attribute) {
+		return names[attribute];
+	}
+
+	public boolean isNominal (int attribute) {
+		return nominalColumns[attribute] != null;
+	}
+
+	/**
+	 * Number of values of a nominal attribute, 0 for numeric attributes (as in weka).
+	 */
+	public int numValues (int attribute) {
+		return isNominal(attribute) ? nominalValues[attribute].length : 0;
+	}
+
+	public String nominalValue (int attribute, int code) {
+		return nominalValues[attribute][code];
+	}
+
+	public int nominalCode (int attribute, int row) {
+		return nominalColumns[attribute][row];
+	}
+
+	public double numericValue (int attribute, int row) {
+		return numericColumns[attribute][row];
+	}
+
+	/**
+	 * The code column of a nominal attribute. Shared, not copied: callers must not modify it.
+	 */
+	public int[] nominalColumn (int attribute) {
+		return nominalColumns[attribute];
+	}
+
+	/**
+	 * The value column of a numeric attribute. Shared, not copied: callers must not modify it.
+	 */
+	public double[] numericColumn (int attribute) {
+		return numericColumns[attribute];
+	}
+
+	public boolean isPositive (int row) {
+		return nominalColumns[classIndex][row] == 0;
+	}
+
+	/**
+	 * Labels (isPositive) of the given rows.
+	 */
+	public boolean[] labels (int[] rows) {
+		boolean[] labels = new boolean[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			labels[i] = isPositive(rows[i]);
+		}
+		return labels;
+	}
+
+	/**
+	 * Attributes other than the class with at most maxValues nominal values. Numeric attributes are always kept.
+	 */
+	public boolean[] attributeMask (int maxValues) {
+		boolean[] mask = new boolean[numAttributes()];
+		for (int a = 0; a < numAttributes(); a++) {
+			mask[a] = a != classIndex && numValues(a) <= maxValues;
+		}
+		return mask;
+	}
+
+	/**
+	 * A dataset where every nominal attribute other than the class with more than maxValues values is replaced by one
+	 * with numBuckets values "h0", "h1", ..., and value v is mapped to bucket hash(v) mod numBuckets (the hashing
+	 * trick). Colliding values share a bucket, but high cardinality attributes can then be one-hot encoded with a
+	 * fixed number of features instead of being dropped. Only the hashed columns are new; the others are shared.
+	 */
+	public ColumnarDataset hashNominalAttributes (int maxValues, int numBuckets) {
+		if (numBuckets <= 0) {
+			throw new IllegalArgumentException("numBuckets parameter must be positive");
+		}
+		String[] bucketNames = new String[numBuckets];
+		for (int b = 0; b < numBuckets; b++) {
+			bucketNames[b] = "h" + b;
+		}
+		String[][] newValues = nominalValues.clone();
+		int[][] newColumns = nominalColumns.clone();
+		for (int a = 0; a < numAttributes(); a++) {
+			if (a == classIndex || numValues(a) <= maxValues) {
+				continue;
+			}
+			int[] bucketOfCode = new int[nominalValues[a].length];
+			for (int code = 0; code < bucketOfCode.length; code++) {
+				bucketOfCode[code] = hashBucket(nominalValues[a][code], numBuckets);
+			}
+			final int[] codes = nominalColumns[a];
+			int[] buckets = new int[numRows];
+			for (int i = 0; i < numRows; i++) {
+				buckets[i] = codes[i] >= 0 ? bucketOfCode[codes[i]] : -1;
+			}
+			newValues[a] = bucketNames;
+			newColumns[a] = buckets;
+		}
+		return new ColumnarDataset(relationName, numRows, classIndex, names, newValues, newColumns, numericColumns);
+	}
+
+	/**
+	 * Bucket of a nominal value: its String hash, finalized with the murmur3 mixer so that similar strings spread.
+	 * Depends only on the value, so the same value lands in the same bucket in every file and run.
+	 */
+	static int hashBucket (String value, int numBuckets) {
+		int h = value.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % numBuckets;
+	}
+
+	/**
+	 * Indices of all rows.
+	 */
+	public int[] allRows () {
+		int[] rows = new int[numRows];
+		for (int i = 0; i < numRows; i++) {
+			rows[i] = i;
+		}
+		return rows;
+	}
+}
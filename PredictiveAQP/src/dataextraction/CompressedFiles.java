@@ -0,0 +1,217 @@
+package dataextraction;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads dataset exports that are plain csv, gzip (.gz), or block gzip (.bgz). A block gzip file is a concatenation
+ * of independent gzip members, each holding a run of whole lines, so it is still a valid .gz file. Next to it sits
+ * an index file (fileLocation + ".idx") with one line per block: compressed offset, compressed length, number of
+ * the first line in the block, and number of lines in the block (tab separated). Line 0 is the csv header line.
+ * The index lets blocks be decompressed and parsed in parallel, and lets sampling seek straight to a block.
+ */
+public class CompressedFiles {
+	public final static String GZIPEXTENSION = ".gz";
+	public final static String BLOCKGZIPEXTENSION = ".bgz";
+	public final static String INDEXEXTENSION = ".idx";
+	public final static int DEFAULTBLOCKSIZE = 1 << 16; // Uncompressed bytes per block, before rounding up to a line end.
+
+	/**
+	 * Opens a line reader on fileLocation, decompressing on the fly if it ends in .gz or .bgz.
+	 */
+	public static BufferedReader openReader (String fileLocation) throws IOException {
+		if (fileLocation.endsWith(GZIPEXTENSION) || fileLocation.endsWith(BLOCKGZIPEXTENSION)) {
+			return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(fileLocation), 1 << 16)), 1 << 16);
+		}
+		return new BufferedReader(new FileReader(fileLocation));
+	}
+
+	/**
+	 * True if fileLocation is a block gzip file with an index next to it.
+	 */
+	public static boolean isIndexed (String fileLocation) {
+		return fileLocation.endsWith(BLOCKGZIPEXTENSION) && new File(fileLocation + INDEXEXTENSION).exists();
+	}
+
+	/**
+	 * Converts the (plain or gzipped) file at inputLocation into a block gzip file at outputLocation, and writes its
+	 * index. Each block holds whole lines, about blockSize uncompressed bytes of them.
+	 */
+	public static void writeBlockGzip (String inputLocation, String outputLocation, int blockSize) throws IOException {
+		BufferedReader br = openReader(inputLocation);
+		FileOutputStream fos = new FileOutputStream(outputLocation);
+		PrintWriter index = new PrintWriter(new FileWriter(outputLocation + INDEXEXTENSION));
+		ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize + (1 << 12));
+		BufferedWriter blockWriter = new BufferedWriter(new OutputStreamWriter(block));
+		long offset = 0;
+		long firstLine = 0;
+		int numLines = 0;
+		String s;
+		while ((s = br.readLine()) != null) {
+			blockWriter.write(s);
+			blockWriter.newLine();
+			numLines++;
+			blockWriter.flush();
+			if (block.size() >= blockSize) {
+				offset += writeBlock(fos, block, index, offset, firstLine, numLines);
+				firstLine += numLines;
+				numLines = 0;
+			}
+		}
+		if (numLines > 0) {
+			writeBlock(fos, block, index, offset, firstLine, numLines);
+		}
+		br.close();
+		fos.close();
+		index.close();
+	}
+
+	public static void writeBlockGzip (String inputLocation, String outputLocation) throws IOException {
+		writeBlockGzip(inputLocation, outputLocation, DEFAULTBLOCKSIZE);
+	}
+
+	/**
+	 * Compresses the buffered lines as one gzip member, appends it to fos, records it in the index, and empties
+	 * the buffer. Returns the compressed length.
+	 */
+	private static long writeBlock (FileOutputStream fos, ByteArrayOutputStream block, PrintWriter index, long offset,
+			long firstLine, int numLines) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(block.size() / 4 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		block.writeTo(gzip);
+		gzip.close();
+		compressed.writeTo(fos);
+		index.println(offset + "\t" + compressed.size() + "\t" + firstLine + "\t" + numLines);
+		block.reset();
+		return compressed.size();
+	}
+
+	/**
+	 * Reads the index of a block gzip file. Row i is {compressed offset, compressed length, first line, number of lines}
+	 * of block i.
+	 */
+	public static long[][] readIndex (String fileLocation) throws IOException {
+		List<long[]> blocks = new ArrayList<long[]>();
+		BufferedReader br = new BufferedReader(new FileReader(fileLocation + INDEXEXTENSION));
+		String s;
+		while ((s = br.readLine()) != null) {
+			if (s.equals("")) {
+				continue;
+			}
+			String[] fields = s.split("\t");
+			long[] block = new long[4];
+			for (int i = 0; i < 4; i++) {
+				block[i] = Long.parseLong(fields[i]);
+			}
+			blocks.add(block);
+		}
+		br.close();
+		return blocks.toArray(new long[blocks.size()][]);
+	}
+
+	/**
+	 * Seeks to one block of a block gzip file and returns its decompressed lines.
+	 */
+	public static List<String> readBlock (String fileLocation, long[] indexEntry) throws IOException {
+		byte[] compressed = new byte[(int) indexEntry[1]];
+		RandomAccessFile raf = new RandomAccessFile(fileLocation, "r");
+		try {
+			raf.seek(indexEntry[0]);
+			raf.readFully(compressed);
+		} finally {
+			raf.close();
+		}
+		List<String> lines = new ArrayList<String>((int) indexEntry[3]);
+		BufferedReader br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+		String s;
+		while ((s = br.readLine()) != null) {
+			lines.add(s);
+		}
+		br.close();
+		return lines;
+	}
+
+	/**
+	 * Decompresses the given blocks of a block gzip file in parallel, on executor. The returned list has the lines of
+	 * blocks[i] at position i.
+	 */
+	public static List<List<String>> readBlocks (final String fileLocation, final long[][] blocks, ExecutorService executor) throws IOException {
+		List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(blocks.length);
+		for (final long[] block : blocks) {
+			futures.add(executor.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws IOException {
+					return readBlock(fileLocation, block);
+				}
+			}));
+		}
+		List<List<String>> result = new ArrayList<List<String>>(blocks.length);
+		try {
+			for (Future<List<String>> future : futures) {
+				result.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while decompressing " + fileLocation);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to decompress block of " + fileLocation, e.getCause());
+		} finally {
+			for (Future<List<String>> future : futures) {
+				future.cancel(false); // Blocks not yet started after a failure.
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Decompresses on a pool of daemon threads, one per processor, shared by all calls (Sampling calls this once
+	 * per batch of blocks).
+	 */
+	public static List<List<String>> readBlocks (String fileLocation, long[][] blocks) throws IOException {
+		return readBlocks(fileLocation, blocks, sharedExecutor());
+	}
+
+	private static ExecutorService sharedExecutor;
+
+	private static synchronized ExecutorService sharedExecutor () {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread (Runnable runnable) {
+					Thread thread = new Thread(runnable, "CompressedFiles.readBlocks");
+					thread.setDaemon(true); // Doesn't keep the JVM alive after main returns.
+					return thread;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+
+	public static void main (String[] args) throws IOException {
+		// Usage: CompressedFiles <input csv or csv.gz> <output .bgz> [blockSize]
+		int blockSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULTBLOCKSIZE;
+		writeBlockGzip(args[0], args[1], blockSize);
+	}
+}
@@ -0,0 +1,76 @@
+package dataextraction;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+import utils.RandomStreams;
+
+/**
+ * A train/test split of the rows of a dataset, held as row indices so the dataset itself is never copied. Row i is
+ * a training row if the i-th draw of a RandomStreams.SplitMixRandom seeded with seed is below trainFraction. A
+ * split is therefore reproducible from its seed, and with the same seed a larger trainFraction only moves rows from
+ * test to train. VERSION changes whenever the rows drawn for a given seed change (version 2 draws from SplitMix64
+ * streams instead of java.util.Random), so anything keyed by a split's seed (see DataCache) must include it.
+ */
+public class DataSplit implements Serializable {
+	private static final long serialVersionUID = 1L;
+	public final static int VERSION = 2;
+
+	final long seed;
+	final double trainFraction;
+	final int[] trainRows;
+	final int[] testRows;
+
+	private DataSplit (long seed, double trainFraction, int[] trainRows, int[] testRows) {
+		this.seed = seed;
+		this.trainFraction = trainFraction;
+		this.trainRows = trainRows;
+		this.testRows = testRows;
+	}
+
+	public static DataSplit split (int numRows, double trainFraction, long seed) {
+		Random random = new RandomStreams.SplitMixRandom(seed);
+		int[] trainRows = new int[numRows];
+		int[] testRows = new int[numRows];
+		int numTrain = 0;
+		int numTest = 0;
+		for (int i = 0; i < numRows; i++) {
+			if (random.nextDouble() < trainFraction) {
+				trainRows[numTrain++] = i;
+			} else {
+				testRows[numTest++] = i;
+			}
+		}
+		return new DataSplit(seed, trainFraction, Arrays.copyOf(trainRows, numTrain), Arrays.copyOf(testRows, numTest));
+	}
+
+	/**
+	 * A split with a fresh random seed.
+	 */
+	public static DataSplit split (int numRows, double trainFraction) {
+		return split(numRows, trainFraction, RandomStreams.newStream().nextLong());
+	}
+
+	public long seed () {
+		return seed;
+	}
+
+	public double trainFraction () {
+		return trainFraction;
+	}
+
+	/**
+	 * Training row indices, in increasing order. Shared, not copied.
+	 */
+	public int[] trainRows () {
+		return trainRows;
+	}
+
+	/**
+	 * Test row indices, in increasing order. Shared, not copied.
+	 */
+	public int[] testRows () {
+		return testRows;
+	}
+}
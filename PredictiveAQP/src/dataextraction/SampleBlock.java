@@ -0,0 +1,318 @@
+package dataextraction;
+
+import static java.lang.System.out;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import solvers.ProbabilisticSolvers;
+import utils.PerformanceAnalysis;
+
+/**
+ * Dictionary encoded block of sampled rows. Each row is parsed once, when it is added; column col of row i is
+ * stored as the int code columns[col][i], and dictionaries.get(col).get(code) is the original field value. Rows
+ * with a good target value have their bit set in labels. Rows with an ignored target value are not stored at all.
+ * All the sample based statistics of the extractors are computed from this representation.
+ */
+public class SampleBlock {
+	final int numColumns;
+	int numRows;
+	int[][] columns;
+	final List<List<String>> dictionaries;
+	final List<Map<String, Integer>> codes;
+	final BitSet labels;
+
+	public SampleBlock (int numColumns) {
+		this.numColumns = numColumns;
+		numRows = 0;
+		columns = new int[numColumns][16];
+		dictionaries = new ArrayList<List<String>>(numColumns);
+		codes = new ArrayList<Map<String, Integer>>(numColumns);
+		for (int col = 0; col < numColumns; col++) {
+			dictionaries.add(new ArrayList<String>());
+			codes.add(new HashMap<String, Integer>());
+		}
+		labels = new BitSet();
+	}
+
+	/**
+	 * Splits a line of an extractor's csv file into its fields.
+	 */
+	public interface RowParser {
+		String[] parse (String line);
+	}
+
+	/**
+	 * Parses and encodes sampled lines. The first line fixes the number of columns. Blank lines are skipped, and
+	 * any other line with a different number of fields is an error. Rows whose target field is in ignoreTarget are
+	 * dropped, and rows whose target field is in goodTarget are labeled good.
+	 */
+	public static SampleBlock encode (List<String> samples, RowParser parser, int target, Set<String> ignoreTarget,
+			Set<String> goodTarget) {
+		final int numFields = parser.parse(samples.get(0)).length;
+		SampleBlock block = new SampleBlock(numFields);
+		int line = 0;
+		for (String s : samples) {
+			line++;
+			if (s.equals("")) {
+				continue;
+			}
+			final String[] fields = parser.parse(s);
+			if (fields.length != numFields) {
+				throw new IllegalArgumentException("Row has wrong number of columns: sample " + line + " has " + fields.length
+						+ ", expected " + numFields);
+			}
+			if (ignoreTarget.contains(fields[target])) {
+				continue;
+			}
+			block.addRow(fields, goodTarget.contains(fields[target]));
+		}
+		return block;
+	}
+
+	/**
+	 * Encodes and appends a parsed row. fields must have numColumns entries.
+	 */
+	public void addRow (String[] fields, boolean good) {
+		if (fields.length != numColumns) {
+			throw new IllegalArgumentException("Row has wrong number of columns");
+		}
+		if (numRows == columns[0].length) {
+			for (int col = 0; col < numColumns; col++) {
+				columns[col] = Arrays.copyOf(columns[col], 2 * numRows);
+			}
+		}
+		for (int col = 0; col < numColumns; col++) {
+			final Map<String, Integer> colCodes = codes.get(col);
+			Integer code = colCodes.get(fields[col]);
+			if (code == null) {
+				code = colCodes.size();
+				colCodes.put(fields[col], code);
+				dictionaries.get(col).add(fields[col]);
+			}
+			columns[col][numRows] = code;
+		}
+		if (good) {
+			labels.set(numRows);
+		}
+		numRows++;
+	}
+
+	public int numRows () {
+		return numRows;
+	}
+
+	public int numColumns () {
+		return numColumns;
+	}
+
+	public int numValues (int col) {
+		return dictionaries.get(col).size();
+	}
+
+	public int code (int col, int row) {
+		return columns[col][row];
+	}
+
+	public String value (int col, int code) {
+		return dictionaries.get(col).get(code);
+	}
+
+	public boolean isGood (int row) {
+		return labels.get(row);
+	}
+
+	/**
+	 * Number of rows having each code of column col.
+	 */
+	public int[] valueCounts (int col) {
+		final int[] column = columns[col];
+		int[] counts = new int[numValues(col)];
+		for (int row = 0; row < numRows; row++) {
+			counts[column[row]]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * Number of good rows having each code of column col.
+	 */
+	public int[] goodCounts (int col) {
+		final int[] column = columns[col];
+		int[] counts = new int[numValues(col)];
+		for (int row = labels.nextSetBit(0); row >= 0 && row < numRows; row = labels.nextSetBit(row + 1)) {
+			counts[column[row]]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * Prints number of distinct values, entropy and selectivity variance of each non target column. Selectivities
+	 * are smoothed as (good + 1) / (total + 2).
+	 */
+	public void printColumnStats (int target) {
+		for (int col = 0; col < numColumns; col++) {
+			if (col == target) {
+				continue;
+			}
+			final int[] totalCounts = valueCounts(col);
+			final int[] goodCounts = goodCounts(col);
+			Double sum = 0.0;
+			Double sqsum = 0.0;
+			Double total = 0.0;
+			Double centropy = 0.0;
+			Double ientropy = 0.0;
+
+			out.println(col);
+			for (int code = 0; code < totalCounts.length; code++) {
+				final double count = totalCounts[code] + 2;
+				final double selectivity = (goodCounts[code] + 1) / count;
+				total += count;
+				sum += count * selectivity;
+				sqsum += count * selectivity * selectivity;
+				centropy += count * selectivity * (-Math.log(selectivity));
+				centropy += count * (1 - selectivity) * (-Math.log(1 - selectivity));
+			}
+			for (int code = 0; code < totalCounts.length; code++) {
+				final Double fraction = (totalCounts[code] + 2) / total;
+				ientropy += fraction * (-Math.log(fraction)) + (1 - fraction) * (-Math.log(1 - fraction));
+			}
+			out.printf("NumKeys : %d\nEntropy : %f\nVariance : %f", totalCounts.length, ientropy + centropy / total, sqsum / total - (sum * sum) / (total * total));
+			out.println("\n");
+		}
+	}
+
+	/**
+	 * Populates sizes and selectivities for groups formed by the combination of values of the predictor columns.
+	 * Group keys are the concatenation of "\"" + value + "\"," over predictors, as in the extractors.
+	 */
+	public void extractSizeSelectivity (List<Integer> predictors, Map<String, Double> sizes, Map<String, Double> selectivities) {
+		final int numPredictors = predictors.size();
+		final int[][] predictorColumns = new int[numPredictors][];
+		for (int p = 0; p < numPredictors; p++) {
+			predictorColumns[p] = columns[predictors.get(p)];
+		}
+		// Rows are grouped by their code tuple, packed into a long if every combination fits, and as a list otherwise.
+		long[] radix = new long[numPredictors];
+		long combinations = 1;
+		boolean packed = true;
+		for (int p = numPredictors - 1; p >= 0; p--) {
+			radix[p] = combinations;
+			final long predictorValues = Math.max(1, numValues(predictors.get(p)));
+			if (combinations > Long.MAX_VALUE / predictorValues) {
+				packed = false;
+				break;
+			}
+			combinations *= predictorValues;
+		}
+		Map<Object, int[]> counts = new HashMap<Object, int[]>();
+		for (int row = 0; row < numRows; row++) {
+			Object key;
+			if (packed) {
+				long packedKey = 0;
+				for (int p = 0; p < numPredictors; p++) {
+					packedKey += radix[p] * predictorColumns[p][row];
+				}
+				key = packedKey;
+			} else {
+				List<Integer> codes = new ArrayList<Integer>(numPredictors);
+				for (int p = 0; p < numPredictors; p++) {
+					codes.add(predictorColumns[p][row]);
+				}
+				key = codes;
+			}
+			int[] count = counts.get(key);
+			if (count == null) {
+				count = new int[2];
+				counts.put(key, count);
+			}
+			count[0]++;
+			if (labels.get(row)) {
+				count[1]++;
+			}
+		}
+		for (Map.Entry<Object, int[]> entry : counts.entrySet()) {
+			String predictorValue = "";
+			if (packed) {
+				long key = (Long) entry.getKey();
+				for (int p = 0; p < numPredictors; p++) {
+					predictorValue = predictorValue + "\"" + value(predictors.get(p), (int) (key / radix[p])) + "\",";
+					key %= radix[p];
+				}
+			} else {
+				@SuppressWarnings("unchecked")
+				final List<Integer> codes = (List<Integer>) entry.getKey();
+				for (int p = 0; p < numPredictors; p++) {
+					predictorValue = predictorValue + "\"" + value(predictors.get(p), codes.get(p)) + "\",";
+				}
+			}
+			final int[] count = entry.getValue();
+			sizes.put(predictorValue, (double) count[0]);
+			selectivities.put(predictorValue, count[1] / (double) count[0]);
+		}
+	}
+
+	/**
+	 * Populates sizes and selectivities for groups formed by the values of column col alone, keyed by raw value.
+	 */
+	public void columnSizeSelectivity (int col, Map<String, Double> sizes, Map<String, Double> selectivities) {
+		final int[] totalCounts = valueCounts(col);
+		final int[] goodCounts = goodCounts(col);
+		for (int code = 0; code < totalCounts.length; code++) {
+			sizes.put(value(col, code), (double) totalCounts[code]);
+			selectivities.put(value(col, code), goodCounts[code] / (double) totalCounts[code]);
+		}
+	}
+
+	/**
+	 * For each column, appends to sizesList and selectivitiesList the sizes and selectivities of groups formed by
+	 * the values of that column alone. Group keys are the raw values.
+	 */
+	public void extractAllSizeSelectivities (List<Map<String, Double>> sizesList, List<Map<String, Double>> selectivitiesList) {
+		for (int col = 0; col < numColumns; col++) {
+			final Map<String, Double> sizes = new HashMap<String, Double>();
+			final Map<String, Double> selectivities = new HashMap<String, Double>();
+			columnSizeSelectivity(col, sizes, selectivities);
+			sizesList.add(sizes);
+			selectivitiesList.add(selectivities);
+		}
+	}
+
+	/**
+	 * Uses the sampled rows to estimate selectivities for all columns, and runs sizesKnown algo to get cost on using
+	 * that column as correlated column. Chooses min cost column among those columns that have <= valThreshold
+	 * distinct values (and at least 2).
+	 */
+	public Integer getBestColumn (int target, Integer valThreshold) {
+		Integer bestColumn = -1;
+		Double minCost = Double.MAX_VALUE;
+		for (int col = 0; col < numColumns; col++) {
+			if (col == target) {
+				continue;
+			}
+			if (numValues(col) > valThreshold || numValues(col) < 2) {
+				continue;
+			}
+			final Map<String, Double> sizes = new HashMap<String, Double>();
+			final Map<String, Double> selectivities = new HashMap<String, Double>();
+			columnSizeSelectivity(col, sizes, selectivities);
+			Map<String, Double> retrieve = new HashMap<String, Double>();
+			Map<String, Double> evaluate = new HashMap<String, Double>();
+			Double alpha = 0.8;
+			Double beta =  0.8;
+			Double rho = 0.8;
+			ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
+			Double numEvaluated = PerformanceAnalysis.evaluateCost(sizes, evaluate);
+			if (numEvaluated < minCost) {
+				minCost = numEvaluated;
+				bestColumn = col;
+			}
+		}
+		return bestColumn;
+	}
+}
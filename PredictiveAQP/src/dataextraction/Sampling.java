@@ -3,19 +3,48 @@ package dataextraction;
 import static java.lang.System.out;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+
+import utils.RandomStreams;
 
 public class Sampling {
+	/**
+	 * Samples each line (other than the header) of the file independently with probability sampleProb. Reads plain
+	 * csv, .gz and .bgz files. Indexed .bgz files are decompressed block-parallel.
+	 */
 	public static List<String> getSamples (Double sampleProb, String fileLocation) throws IOException {
 		List<String> samples = new ArrayList<String>();
-		BufferedReader br = new BufferedReader(new FileReader(fileLocation));
+		final Random random = RandomStreams.newStream();
+		if (CompressedFiles.isIndexed(fileLocation)) {
+			final long[][] blocks = CompressedFiles.readIndex(fileLocation);
+			final int batchSize = 4 * Runtime.getRuntime().availableProcessors(); // Bounds the decompressed lines held at once.
+			boolean isHeader = true;
+			for (int start = 0; start < blocks.length; start += batchSize) {
+				final long[][] batch = Arrays.copyOfRange(blocks, start, Math.min(start + batchSize, blocks.length));
+				for (List<String> lines : CompressedFiles.readBlocks(fileLocation, batch)) {
+					for (String s : lines) {
+						if (isHeader) {
+							isHeader = false;
+							continue;
+						}
+						if (random.nextDouble() > sampleProb) {
+							continue;
+						}
+						samples.add(s);
+					}
+				}
+			}
+			return samples;
+		}
+		BufferedReader br = CompressedFiles.openReader(fileLocation);
 		String s;
 		s = br.readLine();
 		while ((s = br.readLine()) != null) {
-			if (Math.random() > sampleProb) {
+			if (random.nextDouble() > sampleProb) {
 				continue;
 			}
 			samples.add(s);
@@ -23,4 +52,31 @@ public class Sampling {
 		br.close();
 		return samples;
 	}
+
+	/**
+	 * Block (cluster) sampling for indexed .bgz files: picks each block with probability sampleProb, and returns all
+	 * lines (other than the header) of the picked blocks. Only the picked blocks are read and decompressed. Falls
+	 * back to getSamples for files without an index.
+	 */
+	public static List<String> getBlockSamples (Double sampleProb, String fileLocation) throws IOException {
+		if (!CompressedFiles.isIndexed(fileLocation)) {
+			return getSamples(sampleProb, fileLocation);
+		}
+		final Random random = RandomStreams.newStream();
+		List<long[]> picked = new ArrayList<long[]>();
+		for (long[] block : CompressedFiles.readIndex(fileLocation)) {
+			if (random.nextDouble() > sampleProb) {
+				continue;
+			}
+			picked.add(block);
+		}
+		List<String> samples = new ArrayList<String>();
+		for (List<String> lines : CompressedFiles.readBlocks(fileLocation, picked.toArray(new long[picked.size()][]))) {
+			samples.addAll(lines);
+		}
+		if (!picked.isEmpty() && picked.get(0)[2] == 0) {
+			samples.remove(0); // Header line.
+		}
+		return samples;
+	}
 }
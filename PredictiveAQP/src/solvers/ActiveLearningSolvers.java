@@ -0,0 +1,173 @@
+package solvers;
+
+import static java.lang.System.out;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import dataextraction.CensusDataExtractor;
+import dataextraction.ColumnarDataset;
+import utils.DataCache;
+import utils.PerformanceAnalysis;
+import utils.QuantileSketch;
+import utils.RandomStreams;
+
+/**
+ * Builds the training set of the logistic regression model by active learning instead of labeling a uniformly
+ * random trainFraction of the tuples. Labels are UDF evaluations, so every label costs retrieveCost + evaluateCost.
+ * Starting from numSeed random tuples, each round trains the model (warm started), plans the unlabeled tuples with
+ * sizesKnownEvaluate on numClasses bucket-size score buckets (bucket selectivity = mean score of its tuples), and
+ * labels the next batchSize tuples picked by the strategy:
+ * uncertainty: tuples whose score is closest to 0.5, i.e. with the largest p(1-p).
+ * expected-cost: tuples with the largest p(1-p) * (retrieveCost * r + evaluateCost * e), where r and e are the
+ * planned retrieve and evaluate probabilities of their bucket. This approximates the expected planner cost
+ * reduction from labeling a tuple: uncertain tuples in buckets the plan spends the most on.
+ * Labeling stops once a round lowers the planner cost by less than the cost of labeling its batch.
+ */
+public class ActiveLearningSolvers {
+	public final static int MAXROUNDS = 100;
+
+	/**
+	 * Scores of the actively labeled tuples (train) and of the remaining tuples (test), like logisticRegressionScores.
+	 * The number of training tuples is the number of labels consumed. The training tuples are not a uniform sample, so
+	 * their per group counts are biased towards uncertain scores.
+	 */
+	public static ScoreColumn activeLearningScores (ColumnarDataset data, boolean[] mask, int numSeed, int batchSize,
+			String strategy, int numClasses, Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost,
+			long seed) throws Exception {
+		return activeLearningScores(data, mask, numSeed, batchSize, strategy, numClasses, alpha, beta, rho, retrieveCost, 
+				evaluateCost, seed, null);
+	}
+
+	/**
+	 * Like activeLearningScores above, also printing the planner cost of every round to progress, if not null.
+	 */
+	public static ScoreColumn activeLearningScores (ColumnarDataset data, boolean[] mask, int numSeed, int batchSize,
+			String strategy, int numClasses, Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost,
+			long seed, PrintStream progress) throws Exception {
+		if (!strategy.equals("uncertainty") && !strategy.equals("expected-cost")) {
+			throw new IllegalArgumentException("strategy parameter not recognized");
+		}
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		final FeatureMatrix features = FeatureMatrix.encode(data, mask);
+		final int numRows = data.numRows();
+		final Random random = new RandomStreams.SplitMixRandom(seed);
+
+		// Seed set: numSeed rows drawn uniformly without replacement.
+		final boolean[] labeled = new boolean[numRows];
+		int[] labeledRows = new int[Math.min(numSeed, numRows)];
+		int numLabeled = 0;
+		while (numLabeled < labeledRows.length) {
+			final int row = random.nextInt(numRows);
+			if (!labeled[row]) {
+				labeled[row] = true;
+				labeledRows[numLabeled++] = row;
+			}
+		}
+
+		LogisticRegressionModel model = null;
+		int modelLabels = 0;
+		Double previousCost = Double.MAX_VALUE;
+		final double labelCost = retrieveCost + evaluateCost;
+		for (int round = 0; round < MAXROUNDS && numLabeled < numRows; round++) {
+			final int[] trainRows = Arrays.copyOf(labeledRows, numLabeled);
+			model = model == null ? LogisticRegressionModel.train(features, trainRows, data.labels(trainRows))
+					: LogisticRegressionModel.train(features, trainRows, data.labels(trainRows), model.weights(),
+							LogisticRegressionModel.DEFAULTRIDGE, numThreads);
+			modelLabels = numLabeled;
+
+			final int[] pool = unlabeledRows(labeled, numRows - numLabeled);
+			QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULTERROR);
+			final double[] scores = model.score(features, pool, numThreads, sketch);
+			final double[] classLowerBounds = LogisticRegressionSolvers.classLowerBounds(sketch, numClasses, "bucket-size");
+			final int[] buckets = new int[pool.length];
+			final double[] bucketSizes = new double[numClasses];
+			final double[] bucketScores = new double[numClasses];
+			for (int i = 0; i < pool.length; i++) {
+				buckets[i] = LogisticRegressionSolvers.bucketOf(classLowerBounds, scores[i]);
+				bucketSizes[buckets[i]]++;
+				bucketScores[buckets[i]] += scores[i];
+			}
+			Map<String, Double> sizes = new HashMap<String, Double>();
+			Map<String, Double> selectivities = new HashMap<String, Double>();
+			for (int bucket = 0; bucket < numClasses; bucket++) {
+				if (bucketSizes[bucket] > 0) {
+					sizes.put(Integer.toString(bucket), bucketSizes[bucket]);
+					selectivities.put(Integer.toString(bucket), bucketScores[bucket] / bucketSizes[bucket]);
+				}
+			}
+			Map<String, Double> retrieve = new HashMap<String, Double>();
+			Map<String, Double> evaluate = new HashMap<String, Double>();
+			ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
+			final Double cost = retrieveCost * PerformanceAnalysis.retrieveCost(sizes, retrieve)
+					+ evaluateCost * PerformanceAnalysis.evaluateCost(sizes, evaluate);
+			final int batch = Math.min(batchSize, pool.length);
+			if (progress != null) {
+				progress.println("round " + round + "\t" + numLabeled + " labels\tplanner cost " + cost);
+			}
+			if (round > 0 && previousCost - cost < batch * labelCost) {
+				break;
+			}
+			previousCost = cost;
+
+			final double[] priorities = new double[pool.length];
+			for (int i = 0; i < pool.length; i++) {
+				priorities[i] = scores[i] * (1 - scores[i]);
+				if (strategy.equals("expected-cost")) {
+					final String key = Integer.toString(buckets[i]);
+					priorities[i] *= retrieveCost * retrieve.get(key) + evaluateCost * evaluate.get(key);
+				}
+			}
+			final double[] sorted = priorities.clone();
+			Arrays.sort(sorted);
+			final double threshold = sorted[pool.length - batch];
+			if (numLabeled + batch > labeledRows.length) {
+				labeledRows = Arrays.copyOf(labeledRows, Math.max(numLabeled + batch, 2 * labeledRows.length));
+			}
+			// Rows above the threshold first, then ties at the threshold, until the batch is full.
+			final int target = numLabeled + batch;
+			for (int pass = 0; pass < 2 && numLabeled < target; pass++) {
+				for (int i = 0; i < pool.length && numLabeled < target; i++) {
+					if (!labeled[pool[i]] && (pass == 0 ? priorities[i] > threshold : priorities[i] == threshold)) {
+						labeled[pool[i]] = true;
+						labeledRows[numLabeled++] = pool[i];
+					}
+				}
+			}
+		}
+
+		final int[] trainRows = Arrays.copyOf(labeledRows, numLabeled);
+		Arrays.sort(trainRows);
+		if (modelLabels < numLabeled) {
+			model = LogisticRegressionModel.train(features, trainRows, data.labels(trainRows), model.weights(),
+					LogisticRegressionModel.DEFAULTRIDGE, numThreads);
+		}
+		final int[] testRows = unlabeledRows(labeled, numRows - numLabeled);
+		QuantileSketch trainSketch = new QuantileSketch(QuantileSketch.DEFAULTERROR);
+		final double[] trainScores = model.score(features, trainRows, numThreads, trainSketch);
+		return new ScoreColumn(trainScores, data.labels(trainRows), model.score(features, testRows, numThreads),
+				data.labels(testRows), trainSketch);
+	}
+
+	private static int[] unlabeledRows (boolean[] labeled, int numUnlabeled) {
+		int[] rows = new int[numUnlabeled];
+		int i = 0;
+		for (int row = 0; row < labeled.length; row++) {
+			if (!labeled[row]) {
+				rows[i++] = row;
+			}
+		}
+		return rows;
+	}
+
+	public static void main(String[] argv) throws Exception {
+		ColumnarDataset data = DataCache.getHashedDataset(CensusDataExtractor.ARFFFILELOCATION, CensusDataExtractor.TARGET,
+				ColumnarDataset.MAXONEHOTVALUES, ColumnarDataset.DEFAULTHASHBUCKETS);
+		ScoreColumn scores = activeLearningScores(data, data.attributeMask(ColumnarDataset.MAXONEHOTVALUES), 100, 100, "expected-cost", 10, 0.8, 0.8,
+				0.8, 1.0, 10.0, RandomStreams.newStream().nextLong(), out);
+		out.println("labels consumed: " + scores.numTrain());
+	}
+}
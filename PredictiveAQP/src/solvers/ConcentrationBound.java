@@ -0,0 +1,47 @@
+package solvers;
+
+import utils.PlanEvaluator;
+
+/**
+ * How far a sum of independent bounded terms is allowed to fall below its expectation: the probabilistic solvers
+ * require expectation - buffer to meet the precision/recall constraint, with
+ * buffer = multiplier(rho) * sqrt(variance) + offset(rho, maxRange),
+ * so that the constraint holds with probability (about) rho. variance is the solver's variance term for the sum,
+ * and maxRange bounds the range of a single term. With L = log(1 / (1 - rho)):
+ * CHEBYSHEV: sqrt(1 / (1 - rho)). Distribution free, and the loosest.
+ * HOEFFDING: sqrt(2L). A bound when variance is the range based one (range^2 / 4 per term), as in sizesKnownEvaluate.
+ * BERNSTEIN: sqrt(2L), plus maxRange * L / 3. A bound for the true variance (with the range based variance it is
+ * only looser than HOEFFDING, so sizesKnownEvaluate gives it the variance of the plan).
+ * EMPIRICAL_BERNSTEIN: sqrt(2L), plus 7 * maxRange * L / 3. Allows for the variance itself being estimated.
+ * GAUSSIAN: the rho quantile of the standard normal. Not a bound, but the tightest, and accurate for large groups.
+ * Which one still meets rho on a dataset can be checked with Experiments.concentrationBoundAccuracy.
+ */
+public enum ConcentrationBound {
+	CHEBYSHEV, HOEFFDING, BERNSTEIN, EMPIRICAL_BERNSTEIN, GAUSSIAN;
+
+	public double multiplier (double rho) {
+		switch (this) {
+		case CHEBYSHEV:
+			return Math.sqrt(1 / (1 - rho));
+		case GAUSSIAN:
+			return Math.max(0.0, PlanEvaluator.normalQuantile(rho));
+		default:
+			return Math.sqrt(2 * Math.log(1 / (1 - rho)));
+		}
+	}
+
+	public double offset (double rho, double maxRange) {
+		switch (this) {
+		case BERNSTEIN:
+			return maxRange * Math.log(1 / (1 - rho)) / 3;
+		case EMPIRICAL_BERNSTEIN:
+			return 7 * maxRange * Math.log(1 / (1 - rho)) / 3;
+		default:
+			return 0.0;
+		}
+	}
+
+	public double buffer (double variance, double maxRange, double rho) {
+		return multiplier(rho) * Math.sqrt(variance) + offset(rho, maxRange);
+	}
+}
@@ -0,0 +1,441 @@
+package solvers;
+
+import static java.lang.System.out;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dataextraction.CensusDataExtractor;
+import dataextraction.ColumnarDataset;
+import dataextraction.DataSplit;
+import utils.DataCache;
+
+/**
+ * Groups made by a shallow decision tree over the nominal and numeric attributes. The tree is grown best first:
+ * each leaf keeps the split that most lowers the planner cost (sizesKnownEvaluate on all the leaves, with that leaf
+ * replaced by its two children), and the leaf whose split lowers the cost most is split next, until there are
+ * maxLeaves leaves or no split helps. Numeric attributes are binned at quantiles of the training values (at most
+ * MAXBINS bins) and split at a bin edge. Nominal values are ordered by selectivity and split into a prefix and the
+ * rest. Missing values are a bin of their own. The split search for a leaf runs in parallel over the attributes.
+ */
+public class DecisionTreeSolvers {
+	public final static int MAXBINS = 32;
+	public final static int MINLEAFSAMPLES = 20; // Fewest training tuples a leaf may have.
+
+	/**
+	 * Populates the empty inputed sizes, selectivities and positive/negativeSamples maps, for groups made by a
+	 * decision tree with at most maxLeaves leaves, like logisticRegressionGroups does for score buckets. The tree is
+	 * grown on trainFraction fraction of the tuples, whose counts per leaf go to positive/negativeSamples. sizes and
+	 * selectivities are those of the remaining tuples. alpha, beta, rho and the costs are the query the groups are for.
+	 */
+	public static void decisionTreeGroups (String inputFile, Integer target, Map<String, Double> sizes, Map<String, Double> selectivities,
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, int maxLeaves, Double trainFraction,
+			Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost) throws Exception {
+		ColumnarDataset data = DataCache.getDataset(inputFile, target);
+
+		DataSplit split = DataSplit.split(data.numRows(), trainFraction);
+		decisionTreeGroups(data, data.attributeMask(Integer.MAX_VALUE), split.trainRows(), split.testRows(), sizes, selectivities,
+				positiveSamples, negativeSamples, maxLeaves, alpha, beta, rho, retrieveCost, evaluateCost,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Like decisionTreeGroups above, on the attributes of data selected by mask, with the given training and test rows.
+	 * Group names describe the path to the leaf.
+	 */
+	public static void decisionTreeGroups (ColumnarDataset data, boolean[] mask, int[] trainRows, int[] testRows,
+			Map<String, Double> sizes, Map<String, Double> selectivities, Map<String, Integer> positiveSamples,
+			Map<String, Integer> negativeSamples, int maxLeaves, Double alpha, Double beta, Double rho, Double retrieveCost,
+			Double evaluateCost, int numThreads) throws Exception {
+		if (trainRows.length == 0) {
+			throw new IllegalArgumentException("No training tuples");
+		}
+		List<Column> columns = new ArrayList<Column>();
+		for (int a = 0; a < data.numAttributes(); a++) {
+			if (mask[a] && a != data.classIndex()) {
+				columns.add(data.isNominal(a) ? nominalColumn(data, a) : numericColumn(data, a, trainRows));
+			}
+		}
+		final double scale = testRows.length > 0 ? ((double) testRows.length) / trainRows.length : 1.0;
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Node> leaves = new ArrayList<Node>();
+		try {
+			Node root = new Node("all", trainRows, data);
+			leaves.add(root);
+			root.bestSplit = bestSplit(executor, columns, root, leaves, data, scale, alpha, beta, rho, retrieveCost, evaluateCost);
+			while (leaves.size() < maxLeaves) {
+				// The leaf set changed since the best splits were found, so their gains are re-evaluated.
+				final Double currentCost = leavesCost(leaves, null, null, null, scale, alpha, beta, rho, retrieveCost, evaluateCost);
+				Node bestLeaf = null;
+				Double bestCost = currentCost;
+				for (Node leaf : leaves) {
+					if (leaf.bestSplit == null) {
+						continue;
+					}
+					final Double cost = leavesCost(leaves, leaf, leaf.bestSplit.leftCounts, leaf.bestSplit.rightCounts, scale,
+							alpha, beta, rho, retrieveCost, evaluateCost);
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestLeaf = leaf;
+					}
+				}
+				if (bestLeaf == null) {
+					break;
+				}
+				bestLeaf.applySplit(data);
+				leaves.remove(bestLeaf);
+				leaves.add(bestLeaf.left);
+				leaves.add(bestLeaf.right);
+				bestLeaf.left.bestSplit = bestSplit(executor, columns, bestLeaf.left, leaves, data, scale, alpha, beta, rho,
+						retrieveCost, evaluateCost);
+				bestLeaf.right.bestSplit = bestSplit(executor, columns, bestLeaf.right, leaves, data, scale, alpha, beta, rho,
+						retrieveCost, evaluateCost);
+			}
+
+			for (Node leaf : leaves) {
+				sizes.put(leaf.name, 0.0);
+				selectivities.put(leaf.name, 0.0);
+				positiveSamples.put(leaf.name, leaf.positive);
+				negativeSamples.put(leaf.name, leaf.count - leaf.positive);
+			}
+			for (final int row : testRows) {
+				final Node leaf = root.leafOf(row);
+				sizes.put(leaf.name, sizes.get(leaf.name) + 1);
+				if (data.isPositive(row)) {
+					selectivities.put(leaf.name, selectivities.get(leaf.name) + 1);
+				}
+			}
+			for (String key : sizes.keySet()) {
+				selectivities.put(key, sizes.get(key) > 0 ? selectivities.get(key) / sizes.get(key) : 0.0);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * An attribute as one bin code per row. Bin numBins - 1 holds the missing values.
+	 */
+	private static class Column {
+		final int attribute;
+		final String name;
+		final boolean nominal;
+		final int numBins;
+		final int[] codes;
+		final String[] values; // Nominal values, by bin.
+		final double[] upperEdges; // Largest value in each numeric bin.
+
+		Column (int attribute, String name, boolean nominal, int numBins, int[] codes, String[] values, double[] upperEdges) {
+			this.attribute = attribute;
+			this.name = name;
+			this.nominal = nominal;
+			this.numBins = numBins;
+			this.codes = codes;
+			this.values = values;
+			this.upperEdges = upperEdges;
+		}
+	}
+
+	private static Column nominalColumn (ColumnarDataset data, int attribute) {
+		final int numValues = data.numValues(attribute);
+		final int[] column = data.nominalColumn(attribute);
+		int[] codes = new int[column.length];
+		for (int row = 0; row < column.length; row++) {
+			codes[row] = column[row] >= 0 ? column[row] : numValues;
+		}
+		String[] values = new String[numValues];
+		for (int v = 0; v < numValues; v++) {
+			values[v] = data.nominalValue(attribute, v);
+		}
+		return new Column(attribute, data.name(attribute), true, numValues + 1, codes, values, null);
+	}
+
+	/**
+	 * Bin edges are quantiles of the (non missing) training values.
+	 */
+	private static Column numericColumn (ColumnarDataset data, int attribute, int[] trainRows) {
+		final double[] column = data.numericColumn(attribute);
+		double[] trainValues = new double[trainRows.length];
+		int numValues = 0;
+		for (final int row : trainRows) {
+			if (!Double.isNaN(column[row])) {
+				trainValues[numValues++] = column[row];
+			}
+		}
+		Arrays.sort(trainValues, 0, numValues);
+		List<Double> edges = new ArrayList<Double>();
+		for (int b = 1; b <= MAXBINS && numValues > 0; b++) {
+			final double edge = b == MAXBINS ? Double.POSITIVE_INFINITY : trainValues[(int) ((long) b * (numValues - 1) / MAXBINS)];
+			if (edges.isEmpty() || edges.get(edges.size() - 1) < edge) {
+				edges.add(edge);
+			}
+		}
+		double[] upperEdges = new double[edges.size()];
+		for (int b = 0; b < upperEdges.length; b++) {
+			upperEdges[b] = edges.get(b);
+		}
+		int[] codes = new int[column.length];
+		for (int row = 0; row < column.length; row++) {
+			if (Double.isNaN(column[row])) {
+				codes[row] = upperEdges.length;
+				continue;
+			}
+			// First bin whose upper edge is at least the value.
+			int low = 0;
+			int high = upperEdges.length - 1;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (upperEdges[mid] < column[row]) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			codes[row] = low;
+		}
+		return new Column(attribute, data.name(attribute), false, upperEdges.length + 1, codes, null, upperEdges);
+	}
+
+	/**
+	 * Split of a leaf: rows whose bin is in left go to the left child.
+	 */
+	private static class Split {
+		final Column column;
+		final boolean[] left;
+		final int[] leftCounts; // {count, positive}
+		final int[] rightCounts;
+		final Double cost;
+
+		Split (Column column, boolean[] left, int[] leftCounts, int[] rightCounts, Double cost) {
+			this.column = column;
+			this.left = left;
+			this.leftCounts = leftCounts;
+			this.rightCounts = rightCounts;
+			this.cost = cost;
+		}
+
+		String describe (boolean side) {
+			StringBuilder sb = new StringBuilder(column.name);
+			if (!column.nominal) {
+				int lastLeft = -1;
+				for (int b = 0; b < column.numBins - 1; b++) {
+					if (left[b]) {
+						lastLeft = b;
+					}
+				}
+				sb.append(side ? "<=" : ">").append(lastLeft >= 0 ? column.upperEdges[lastLeft] : Double.NEGATIVE_INFINITY);
+				if (left[column.numBins - 1] == side) {
+					sb.append("|?");
+				}
+				return sb.toString();
+			}
+			// The right child also gets the values not seen in the training tuples of the leaf, so both sides are
+			// described by the left values.
+			sb.append(side ? "=" : "!=");
+			boolean first = true;
+			for (int b = 0; b < column.numBins; b++) {
+				if (left[b]) {
+					if (!first) {
+						sb.append("|");
+					}
+					sb.append(b < column.values.length ? column.values[b] : "?");
+					first = false;
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private static class Node {
+		final String name;
+		final int[] trainRows;
+		final int count;
+		final int positive;
+		Split bestSplit;
+		Split split;
+		Node left;
+		Node right;
+
+		Node (String name, int[] trainRows, ColumnarDataset data) {
+			this.name = name;
+			this.trainRows = trainRows;
+			int positive = 0;
+			for (final int row : trainRows) {
+				if (data.isPositive(row)) {
+					positive++;
+				}
+			}
+			this.count = trainRows.length;
+			this.positive = positive;
+		}
+
+		void applySplit (ColumnarDataset data) {
+			split = bestSplit;
+			int[] leftRows = new int[split.leftCounts[0]];
+			int[] rightRows = new int[split.rightCounts[0]];
+			int l = 0;
+			int r = 0;
+			for (final int row : trainRows) {
+				if (split.left[split.column.codes[row]]) {
+					leftRows[l++] = row;
+				} else {
+					rightRows[r++] = row;
+				}
+			}
+			final String prefix = name.equals("all") ? "" : name + " & ";
+			left = new Node(prefix + split.describe(true), leftRows, data);
+			right = new Node(prefix + split.describe(false), rightRows, data);
+		}
+
+		Node leafOf (int row) {
+			Node node = this;
+			while (node.split != null) {
+				node = node.split.left[node.split.column.codes[row]] ? node.left : node.right;
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * Planner cost of the leaves, with replaced (if not null) replaced by two leaves with the given {count, positive}.
+	 */
+	private static Double leavesCost (List<Node> leaves, Node replaced, int[] leftCounts, int[] rightCounts, double scale,
+			Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost) {
+		Map<String, Double> sizes = new HashMap<String, Double>();
+		Map<String, Double> selectivities = new HashMap<String, Double>();
+		int i = 0;
+		for (Node leaf : leaves) {
+			if (leaf != replaced) {
+				putGroup(sizes, selectivities, Integer.toString(i++), leaf.count, leaf.positive, scale);
+			}
+		}
+		if (replaced != null) {
+			putGroup(sizes, selectivities, "left", leftCounts[0], leftCounts[1], scale);
+			putGroup(sizes, selectivities, "right", rightCounts[0], rightCounts[1], scale);
+		}
+		return ProbabilisticSolvers.sizesKnownCost(sizes, selectivities, alpha, beta, rho, retrieveCost, evaluateCost);
+	}
+
+	private static void putGroup (Map<String, Double> sizes, Map<String, Double> selectivities, String key, int count,
+			int positive, double scale) {
+		sizes.put(key, count * scale);
+		selectivities.put(key, ((double) positive) / count);
+	}
+
+	/**
+	 * Cheapest split of leaf over all columns (one task per column), or null if no split is cheaper than not
+	 * splitting or every split leaves a child with fewer than MINLEAFSAMPLES training tuples.
+	 */
+	private static Split bestSplit (ExecutorService executor, List<Column> columns, final Node leaf, List<Node> leaves,
+			ColumnarDataset data, final double scale, final Double alpha, final Double beta, final Double rho,
+			final Double retrieveCost, final Double evaluateCost) throws Exception {
+		if (leaf.count < 2 * MINLEAFSAMPLES) {
+			return null;
+		}
+		final List<Node> fLeaves = new ArrayList<Node>(leaves);
+		final boolean[] positive = new boolean[leaf.count];
+		for (int i = 0; i < leaf.count; i++) {
+			positive[i] = data.isPositive(leaf.trainRows[i]);
+		}
+		List<Future<Split>> futures = new ArrayList<Future<Split>>();
+		for (final Column column : columns) {
+			futures.add(executor.submit(new Callable<Split>() {
+				@Override
+				public Split call() {
+					return bestColumnSplit(column, leaf, positive, fLeaves, scale, alpha, beta, rho, retrieveCost, evaluateCost);
+				}
+			}));
+		}
+		Split best = null;
+		Double bestCost = leavesCost(leaves, null, null, null, scale, alpha, beta, rho, retrieveCost, evaluateCost);
+		for (Future<Split> future : futures) {
+			final Split split = LogisticRegressionModel.getResult(future);
+			if (split != null && split.cost < bestCost) {
+				bestCost = split.cost;
+				best = split;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Cheapest split of leaf on one column. Bins are scanned in value order (numeric) or selectivity order (nominal),
+	 * and every prefix of the scan is tried as the left child. Missing values stay on the left for numeric columns.
+	 */
+	private static Split bestColumnSplit (Column column, Node leaf, boolean[] positive, List<Node> leaves, double scale,
+			Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost) {
+		final int[] binCounts = new int[column.numBins];
+		final int[] binPositives = new int[column.numBins];
+		for (int i = 0; i < leaf.count; i++) {
+			final int bin = column.codes[leaf.trainRows[i]];
+			binCounts[bin]++;
+			if (positive[i]) {
+				binPositives[bin]++;
+			}
+		}
+		List<Integer> order = new ArrayList<Integer>();
+		for (int b = 0; b < column.numBins; b++) {
+			if (binCounts[b] > 0 && (column.nominal || b < column.numBins - 1)) {
+				order.add(b);
+			}
+		}
+		if (column.nominal) {
+			Collections.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer arg0, Integer arg1) {
+					return Double.compare(((double) binPositives[arg1]) / binCounts[arg1],
+							((double) binPositives[arg0]) / binCounts[arg0]);
+				}
+			});
+		}
+
+		boolean[] left = new boolean[column.numBins];
+		int[] leftCounts = new int[2];
+		if (!column.nominal) {
+			final int missing = column.numBins - 1;
+			left[missing] = true;
+			leftCounts[0] += binCounts[missing];
+			leftCounts[1] += binPositives[missing];
+		}
+		Split best = null;
+		for (int i = 0; i < order.size() - 1; i++) {
+			final int bin = order.get(i);
+			left[bin] = true;
+			leftCounts[0] += binCounts[bin];
+			leftCounts[1] += binPositives[bin];
+			final int[] rightCounts = new int[] {leaf.count - leftCounts[0], leaf.positive - leftCounts[1]};
+			if (leftCounts[0] < MINLEAFSAMPLES || rightCounts[0] < MINLEAFSAMPLES) {
+				continue;
+			}
+			final Double cost = leavesCost(leaves, leaf, leftCounts, rightCounts, scale, alpha, beta, rho, retrieveCost,
+					evaluateCost);
+			if (best == null || cost < best.cost) {
+				best = new Split(column, left.clone(), leftCounts.clone(), rightCounts, cost);
+			}
+		}
+		return best;
+	}
+
+	public static void main(String[] argv) throws Exception {
+		Map<String, Double> sizes = new HashMap<String, Double>();
+		Map<String, Double> selectivities = new HashMap<String, Double>();
+		Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
+		Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
+		decisionTreeGroups(CensusDataExtractor.ARFFFILELOCATION, CensusDataExtractor.TARGET, sizes, selectivities,
+				positiveSamples, negativeSamples, 10, 0.02, 0.8, 0.8, 0.8, 1.0, 10.0);
+		out.println(sizes.toString());
+		out.println(selectivities.toString());
+		out.println(positiveSamples.toString());
+		out.println(negativeSamples.toString());
+	}
+}
@@ -0,0 +1,158 @@
+package solvers;
+
+import java.io.Serializable;
+
+import dataextraction.ColumnarDataset;
+
+/**
+ * Sparse feature view of a ColumnarDataset, used by LogisticRegressionModel. Nothing is copied per row: a nominal
+ * attribute contributes the one-hot feature nominalOffsets[j] + code (no feature if missing), read straight from
+ * the dataset's code column, and a numeric attribute contributes one standardized feature (0 if missing, i.e. mean
+ * imputation). Feature 0 is the intercept and is always 1.
+ */
+public class FeatureMatrix implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	final int numRows;
+	final int numFeatures;
+	final int[][] nominalColumns;
+	final int[] nominalOffsets;
+	final double[][] numericColumns;
+	final int[] numericOffsets;
+	final double[] means;
+	final double[] scales;
+
+	private FeatureMatrix (int numRows, int numFeatures, int[][] nominalColumns, int[] nominalOffsets,
+			double[][] numericColumns, int[] numericOffsets, double[] means, double[] scales) {
+		this.numRows = numRows;
+		this.numFeatures = numFeatures;
+		this.nominalColumns = nominalColumns;
+		this.nominalOffsets = nominalOffsets;
+		this.numericColumns = numericColumns;
+		this.numericOffsets = numericOffsets;
+		this.means = means;
+		this.scales = scales;
+	}
+
+	/**
+	 * Features for the attributes of data selected by mask. The class attribute must not be selected.
+	 */
+	public static FeatureMatrix encode (ColumnarDataset data, boolean[] mask) {
+		int numNominal = 0;
+		int numNumeric = 0;
+		for (int a = 0; a < data.numAttributes(); a++) {
+			if (!mask[a]) {
+				continue;
+			}
+			if (a == data.classIndex()) {
+				throw new IllegalArgumentException("Class attribute cannot be a feature");
+			}
+			if (data.isNominal(a)) {
+				numNominal++;
+			} else {
+				numNumeric++;
+			}
+		}
+		int[][] nominalColumns = new int[numNominal][];
+		int[] nominalOffsets = new int[numNominal];
+		double[][] numericColumns = new double[numNumeric][];
+		int[] numericOffsets = new int[numNumeric];
+		double[] means = new double[numNumeric];
+		double[] scales = new double[numNumeric];
+		int numFeatures = 1;
+		int j = 0;
+		int k = 0;
+		for (int a = 0; a < data.numAttributes(); a++) {
+			if (!mask[a]) {
+				continue;
+			}
+			if (data.isNominal(a)) {
+				nominalColumns[j] = data.nominalColumn(a);
+				nominalOffsets[j] = numFeatures;
+				numFeatures += data.numValues(a);
+				j++;
+			} else {
+				numericColumns[k] = data.numericColumn(a);
+				double sum = 0.0;
+				double sqsum = 0.0;
+				int count = 0;
+				for (final double x : numericColumns[k]) {
+					if (!Double.isNaN(x)) {
+						sum += x;
+						sqsum += x * x;
+						count++;
+					}
+				}
+				means[k] = count > 0 ? sum / count : 0.0;
+				final double variance = count > 0 ? sqsum / count - means[k] * means[k] : 0.0;
+				scales[k] = variance > 1e-12 ? 1 / Math.sqrt(variance) : 0.0;
+				numericOffsets[k] = numFeatures;
+				numFeatures++;
+				k++;
+			}
+		}
+		return new FeatureMatrix(data.numRows(), numFeatures, nominalColumns, nominalOffsets, numericColumns,
+				numericOffsets, means, scales);
+	}
+
+	public int numRows () {
+		return numRows;
+	}
+
+	public int numFeatures () {
+		return numFeatures;
+	}
+
+	/**
+	 * Upper bound on the number of non zero features of a row.
+	 */
+	public int maxRowFeatures () {
+		return 1 + nominalColumns.length + numericColumns.length;
+	}
+
+	/**
+	 * Writes the non zero features of row into indices and values, and returns how many there are.
+	 */
+	public int features (int row, int[] indices, double[] values) {
+		indices[0] = 0;
+		values[0] = 1.0;
+		int nnz = 1;
+		for (int j = 0; j < nominalColumns.length; j++) {
+			final int code = nominalColumns[j][row];
+			if (code >= 0) {
+				indices[nnz] = nominalOffsets[j] + code;
+				values[nnz] = 1.0;
+				nnz++;
+			}
+		}
+		for (int k = 0; k < numericColumns.length; k++) {
+			final double x = numericColumns[k][row];
+			if (!Double.isNaN(x) && scales[k] > 0) {
+				indices[nnz] = numericOffsets[k];
+				values[nnz] = (x - means[k]) * scales[k];
+				nnz++;
+			}
+		}
+		return nnz;
+	}
+
+	/**
+	 * Inner product of row with weights.
+	 */
+	public double dot (int row, double[] weights) {
+		double z = weights[0];
+		for (int j = 0; j < nominalColumns.length; j++) {
+			final int code = nominalColumns[j][row];
+			if (code >= 0) {
+				z += weights[nominalOffsets[j] + code];
+			}
+		}
+		for (int k = 0; k < numericColumns.length; k++) {
+			final double x = numericColumns[k][row];
+			if (!Double.isNaN(x)) {
+				z += weights[numericOffsets[k]] * (x - means[k]) * scales[k];
+			}
+		}
+		return z;
+	}
+}
@@ -0,0 +1,525 @@
+package solvers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import utils.QuantileSketch;
+
+/**
+ * L2 regularized logistic regression over a FeatureMatrix, replacing weka's Logistic for grouping. Training uses
+ * Newton's method (IRLS) when there are at most MAXNEWTONFEATURES features, and L-BFGS otherwise. Gradients (and
+ * Hessians) are summed over row chunks in parallel, and scoring is done in parallel chunks as well. The chunks run on
+ * a daemon pool per thread count, shared by all calls, so solvers that train and score every round don't create and
+ * tear down a pool each time.
+ * A score is the probability that a row is positive.
+ */
+public class LogisticRegressionModel implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final static double DEFAULTRIDGE = 1e-4;
+	public final static int MAXNEWTONFEATURES = 1024;
+	final static int MAXITERATIONS = 100;
+	final static int LBFGSMEMORY = 10;
+	final static double TOLERANCE = 1e-9;
+	final static int CHUNKSPERTHREAD = 4;
+
+	final double[] weights;
+
+	public LogisticRegressionModel (double[] weights) {
+		this.weights = weights;
+	}
+
+	public double[] weights () {
+		return weights;
+	}
+
+	public static LogisticRegressionModel train (FeatureMatrix features, int[] rows, boolean[] labels) throws Exception {
+		return train(features, rows, labels, DEFAULTRIDGE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Fits a model on the given rows of features. labels[i] is the label of rows[i]. The intercept is not penalized.
+	 */
+	public static LogisticRegressionModel train (FeatureMatrix features, int[] rows, boolean[] labels, double ridge,
+			int numThreads) throws Exception {
+		return train(features, rows, labels, new double[features.numFeatures()], ridge, numThreads);
+	}
+
+	/**
+	 * Like train above, but starts from initialWeights (which is not modified).
+	 */
+	public static LogisticRegressionModel train (FeatureMatrix features, int[] rows, boolean[] labels, double[] initialWeights,
+			double ridge, int numThreads) throws Exception {
+		if (rows.length != labels.length) {
+			throw new IllegalArgumentException("rows and labels have different lengths");
+		}
+		final ExecutorService executor = sharedExecutor(numThreads);
+		double[] weights = initialWeights.clone();
+		if (features.numFeatures() <= MAXNEWTONFEATURES) {
+			newton(executor, numThreads, features, rows, labels, weights, ridge);
+		} else {
+			lbfgs(executor, numThreads, features, rows, labels, weights, ridge);
+		}
+		return new LogisticRegressionModel(weights);
+	}
+
+	/**
+	 * Curvature of the penalized log likelihood at this model, summed over the given rows with rowWeights[i] the weight
+	 * of rows[i]: the negated Hessian (row major d x d), or just its diagonal if diagonalOnly. The starting precision
+	 * of update, from the rows the model was fit on.
+	 */
+	public double[] precision (FeatureMatrix features, int[] rows, double[] rowWeights, double ridge, boolean diagonalOnly) {
+		final int d = features.numFeatures();
+		double[] precision = new double[diagonalOnly ? d : d * d];
+		addCurvature(features, rows, rowWeights, precision, diagonalOnly);
+		for (int j = 0; j < d; j++) {
+			precision[diagonalOnly ? j : j * d + j] += (j == 0 ? 1e-10 : ridge) + 1e-12;
+		}
+		return precision;
+	}
+
+	/**
+	 * Online Newton step on a weighted mini-batch, for refining a model with newly labeled rows without refitting on
+	 * the old ones: adds the batch's weighted curvature to precision (in place; full or diagonal, as returned by
+	 * precision), and returns the model moved by precision^-1 times the batch's weighted gradient. This is the
+	 * Laplace approximation of refitting on all the rows seen so far, at the cost of the batch only.
+	 */
+	public LogisticRegressionModel update (FeatureMatrix features, int[] rows, boolean[] labels, double[] rowWeights,
+			double[] precision) {
+		if (rows.length != labels.length || rows.length != rowWeights.length) {
+			throw new IllegalArgumentException("rows, labels and rowWeights have different lengths");
+		}
+		final int d = features.numFeatures();
+		final boolean diagonalOnly = precision.length == d;
+		final double[] step = new double[d];
+		int[] indices = new int[features.maxRowFeatures()];
+		double[] values = new double[features.maxRowFeatures()];
+		for (int i = 0; i < rows.length; i++) {
+			final int nnz = features.features(rows[i], indices, values);
+			double z = 0.0;
+			for (int f = 0; f < nnz; f++) {
+				z += weights[indices[f]] * values[f];
+			}
+			final double residual = rowWeights[i] * ((labels[i] ? 1.0 : 0.0) - sigmoid(z));
+			for (int f = 0; f < nnz; f++) {
+				step[indices[f]] += residual * values[f];
+			}
+		}
+		addCurvature(features, rows, rowWeights, precision, diagonalOnly);
+		if (diagonalOnly) {
+			for (int j = 0; j < d; j++) {
+				step[j] /= precision[j];
+			}
+		} else {
+			choleskySolve(precision.clone(), d, step);
+		}
+		double[] updated = weights.clone();
+		for (int j = 0; j < d; j++) {
+			updated[j] += step[j];
+		}
+		return new LogisticRegressionModel(updated);
+	}
+
+	/**
+	 * Adds sum_i rowWeights[i] p_i (1 - p_i) x_i x_i^T over rows to the upper triangle of precision (and mirrors it
+	 * into the lower one), or just its diagonal.
+	 */
+	private void addCurvature (FeatureMatrix features, int[] rows, double[] rowWeights, double[] precision,
+			boolean diagonalOnly) {
+		final int d = features.numFeatures();
+		int[] indices = new int[features.maxRowFeatures()];
+		double[] values = new double[features.maxRowFeatures()];
+		for (int i = 0; i < rows.length; i++) {
+			final int nnz = features.features(rows[i], indices, values);
+			double z = 0.0;
+			for (int f = 0; f < nnz; f++) {
+				z += weights[indices[f]] * values[f];
+			}
+			final double p = sigmoid(z);
+			final double w = rowWeights[i] * p * (1 - p);
+			for (int f = 0; f < nnz; f++) {
+				if (diagonalOnly) {
+					precision[indices[f]] += w * values[f] * values[f];
+					continue;
+				}
+				for (int g = 0; g < nnz; g++) {
+					if (indices[g] >= indices[f]) {
+						precision[indices[f] * d + indices[g]] += w * values[f] * values[g];
+					}
+				}
+			}
+		}
+		if (!diagonalOnly) {
+			for (int j = 0; j < d; j++) {
+				for (int k = 0; k < j; k++) {
+					precision[j * d + k] = precision[k * d + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Probability that a row with linear term z is positive.
+	 */
+	static double sigmoid (double z) {
+		if (z >= 0) {
+			return 1 / (1 + Math.exp(-z));
+		}
+		final double e = Math.exp(z);
+		return e / (1 + e);
+	}
+
+	/**
+	 * log P(label | z), computed without overflow.
+	 */
+	static double logLikelihood (double z, boolean label) {
+		final double m = label ? -z : z; // -log(1 + exp(m))
+		return m > 0 ? -m - Math.log1p(Math.exp(-m)) : -Math.log1p(Math.exp(m));
+	}
+
+	public double score (FeatureMatrix features, int row) {
+		return sigmoid(features.dot(row, weights));
+	}
+
+	public double[] score (FeatureMatrix features, int[] rows) throws Exception {
+		return score(features, rows, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Scores of the given rows, computed in parallel chunks.
+	 */
+	public double[] score (FeatureMatrix features, int[] rows, int numThreads) throws Exception {
+		return score(features, rows, numThreads, null);
+	}
+
+	/**
+	 * Like score above, and if sketch is not null, also adds every score to it: each chunk fills its own sketch 
+	 * (QuantileSketch.emptyCopies, made before any chunk runs), and the chunk sketches are merged into sketch in 
+	 * chunk order once all chunks are done.
+	 */
+	public double[] score (final FeatureMatrix features, final int[] rows, int numThreads, QuantileSketch sketch) 
+			throws Exception {
+		final double[] scores = new double[rows.length];
+		final List<int[]> ranges = chunks(rows.length, CHUNKSPERTHREAD * numThreads);
+		final QuantileSketch[] chunkSketches = sketch == null ? null : sketch.emptyCopies(ranges.size());
+		final ExecutorService executor = sharedExecutor(numThreads);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int c = 0; c < ranges.size(); c++) {
+			final int[] range = ranges.get(c);
+			final QuantileSketch chunkSketch = chunkSketches == null ? null : chunkSketches[c];
+			futures.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() {
+					for (int i = range[0]; i < range[1]; i++) {
+						scores[i] = sigmoid(features.dot(rows[i], weights));
+					}
+					if (chunkSketch != null) {
+						for (int i = range[0]; i < range[1]; i++) {
+							chunkSketch.add(scores[i]);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Object> future : futures) {
+			getResult(future);
+		}
+		if (chunkSketches != null) {
+			for (QuantileSketch chunkSketch : chunkSketches) {
+				sketch.merge(chunkSketch);
+			}
+		}
+		return scores;
+	}
+
+	private final static Map<Integer, ExecutorService> sharedExecutors = new HashMap<Integer, ExecutorService>();
+
+	/**
+	 * The shared daemon pool of numThreads threads, created on first use. Chunk tasks never wait on other tasks, so
+	 * concurrent callers can share it.
+	 */
+	private static synchronized ExecutorService sharedExecutor (int numThreads) {
+		ExecutorService executor = sharedExecutors.get(numThreads);
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread (Runnable runnable) {
+					Thread thread = new Thread(runnable, "LogisticRegressionModel");
+					thread.setDaemon(true); // Doesn't keep the JVM alive after main returns.
+					return thread;
+				}
+			});
+			sharedExecutors.put(numThreads, executor);
+		}
+		return executor;
+	}
+
+	/**
+	 * Splits [0, n) into numChunks (fewer if n is smaller) contiguous {from, to} ranges.
+	 */
+	static List<int[]> chunks (int n, int numChunks) {
+		numChunks = Math.max(1, Math.min(n, numChunks));
+		List<int[]> ranges = new ArrayList<int[]>(numChunks);
+		for (int c = 0; c < numChunks; c++) {
+			ranges.add(new int[] {(int) ((long) n * c / numChunks), (int) ((long) n * (c + 1) / numChunks)});
+		}
+		return ranges;
+	}
+
+	static <T> T getResult (Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Penalized log likelihood (index 0), its gradient (indices 1..d) and, if wanted, the negated Hessian of the
+	 * unpenalized log likelihood (upper triangle, row major d x d), summed over rows.
+	 */
+	private static double[][] evaluate (ExecutorService executor, int numThreads, final FeatureMatrix features,
+			final int[] rows, final boolean[] labels, final double[] weights, double ridge, final boolean withHessian) throws Exception {
+		final int d = features.numFeatures();
+		// One chunk per thread when summing Hessians, to bound the d x d buffers.
+		final int numChunks = withHessian ? numThreads : CHUNKSPERTHREAD * numThreads;
+		List<Future<double[][]>> futures = new ArrayList<Future<double[][]>>();
+		for (final int[] range : chunks(rows.length, numChunks)) {
+			futures.add(executor.submit(new Callable<double[][]>() {
+				@Override
+				public double[][] call() {
+					double[] value = new double[1 + d];
+					double[] hessian = withHessian ? new double[d * d] : null;
+					int[] indices = new int[features.maxRowFeatures()];
+					double[] values = new double[features.maxRowFeatures()];
+					for (int i = range[0]; i < range[1]; i++) {
+						final int nnz = features.features(rows[i], indices, values);
+						double z = 0.0;
+						for (int f = 0; f < nnz; f++) {
+							z += weights[indices[f]] * values[f];
+						}
+						final double p = sigmoid(z);
+						value[0] += logLikelihood(z, labels[i]);
+						final double residual = (labels[i] ? 1.0 : 0.0) - p;
+						for (int f = 0; f < nnz; f++) {
+							value[1 + indices[f]] += residual * values[f];
+						}
+						if (withHessian) {
+							final double w = p * (1 - p);
+							for (int f = 0; f < nnz; f++) {
+								final int rowOffset = indices[f] * d;
+								final double wf = w * values[f];
+								for (int g = 0; g < nnz; g++) {
+									if (indices[g] >= indices[f]) {
+										hessian[rowOffset + indices[g]] += wf * values[g];
+									}
+								}
+							}
+						}
+					}
+					return new double[][] {value, hessian};
+				}
+			}));
+		}
+		double[] value = new double[1 + d];
+		double[] hessian = withHessian ? new double[d * d] : null;
+		for (Future<double[][]> future : futures) {
+			final double[][] partial = getResult(future);
+			for (int j = 0; j <= d; j++) {
+				value[j] += partial[0][j];
+			}
+			if (withHessian) {
+				for (int j = 0; j < d * d; j++) {
+					hessian[j] += partial[1][j];
+				}
+			}
+		}
+		for (int j = 1; j < d; j++) {
+			value[0] -= 0.5 * ridge * weights[j] * weights[j];
+			value[1 + j] -= ridge * weights[j];
+		}
+		return new double[][] {value, hessian};
+	}
+
+	private static void newton (ExecutorService executor, int numThreads, FeatureMatrix features, int[] rows, boolean[] labels,
+			double[] weights, double ridge) throws Exception {
+		final int d = features.numFeatures();
+		double[] previous = null;
+		double previousValue = Double.NEGATIVE_INFINITY;
+		int halvings = 0;
+		for (int iter = 0; iter < MAXITERATIONS; iter++) {
+			final double[][] evaluation = evaluate(executor, numThreads, features, rows, labels, weights, ridge, true);
+			final double value = evaluation[0][0];
+			if (value < previousValue && halvings < 20) {
+				// Overshot: step halving towards the previous iterate.
+				for (int j = 0; j < d; j++) {
+					weights[j] = 0.5 * (weights[j] + previous[j]);
+				}
+				halvings++;
+				continue;
+			}
+			if (previous != null && value - previousValue <= TOLERANCE * (1 + Math.abs(value))) {
+				return;
+			}
+			halvings = 0;
+			previousValue = value;
+			previous = weights.clone();
+			final double[] hessian = evaluation[1];
+			for (int j = 0; j < d; j++) {
+				hessian[j * d + j] += (j == 0 ? 1e-10 : ridge) + 1e-12;
+				for (int k = 0; k < j; k++) {
+					hessian[j * d + k] = hessian[k * d + j];
+				}
+			}
+			final double[] step = new double[d];
+			System.arraycopy(evaluation[0], 1, step, 0, d);
+			choleskySolve(hessian, d, step);
+			for (int j = 0; j < d; j++) {
+				weights[j] += step[j];
+			}
+		}
+	}
+
+	/**
+	 * Solves A x = b in place (b becomes x) for symmetric positive definite A (row major d x d, overwritten).
+	 */
+	static void choleskySolve (double[] a, int d, double[] b) {
+		for (int j = 0; j < d; j++) {
+			double diagonal = a[j * d + j];
+			for (int k = 0; k < j; k++) {
+				diagonal -= a[j * d + k] * a[j * d + k];
+			}
+			diagonal = Math.sqrt(Math.max(diagonal, 1e-300));
+			a[j * d + j] = diagonal;
+			for (int i = j + 1; i < d; i++) {
+				double sum = a[i * d + j];
+				for (int k = 0; k < j; k++) {
+					sum -= a[i * d + k] * a[j * d + k];
+				}
+				a[i * d + j] = sum / diagonal;
+			}
+		}
+		for (int i = 0; i < d; i++) {
+			double sum = b[i];
+			for (int k = 0; k < i; k++) {
+				sum -= a[i * d + k] * b[k];
+			}
+			b[i] = sum / a[i * d + i];
+		}
+		for (int i = d - 1; i >= 0; i--) {
+			double sum = b[i];
+			for (int k = i + 1; k < d; k++) {
+				sum -= a[k * d + i] * b[k];
+			}
+			b[i] = sum / a[i * d + i];
+		}
+	}
+
+	private static void lbfgs (ExecutorService executor, int numThreads, FeatureMatrix features, int[] rows, boolean[] labels,
+			double[] weights, double ridge) throws Exception {
+		final int d = features.numFeatures();
+		double[][] s = new double[LBFGSMEMORY][];
+		double[][] y = new double[LBFGSMEMORY][];
+		double[] rhos = new double[LBFGSMEMORY];
+		int stored = 0;
+		double[] evaluation = evaluate(executor, numThreads, features, rows, labels, weights, ridge, false)[0];
+		double value = evaluation[0];
+		double[] gradient = new double[d];
+		System.arraycopy(evaluation, 1, gradient, 0, d);
+		for (int iter = 0; iter < MAXITERATIONS; iter++) {
+			// Two loop recursion for the ascent direction.
+			double[] direction = gradient.clone();
+			double[] alphas = new double[LBFGSMEMORY];
+			for (int m = stored - 1; m >= 0; m--) {
+				alphas[m] = rhos[m] * dot(s[m], direction);
+				axpy(-alphas[m], y[m], direction);
+			}
+			if (stored > 0) {
+				final double gamma = dot(s[stored - 1], y[stored - 1]) / dot(y[stored - 1], y[stored - 1]);
+				for (int j = 0; j < d; j++) {
+					direction[j] *= gamma;
+				}
+			} else {
+				final double norm = Math.sqrt(dot(direction, direction));
+				for (int j = 0; j < d; j++) {
+					direction[j] /= Math.max(norm, 1.0);
+				}
+			}
+			for (int m = 0; m < stored; m++) {
+				final double beta = rhos[m] * dot(y[m], direction);
+				axpy(alphas[m] - beta, s[m], direction);
+			}
+			// Backtracking line search (Armijo).
+			final double slope = dot(gradient, direction);
+			double stepSize = 1.0;
+			double[] candidate = new double[d];
+			double[] candidateEvaluation = null;
+			for (int halving = 0; halving < 30; halving++) {
+				for (int j = 0; j < d; j++) {
+					candidate[j] = weights[j] + stepSize * direction[j];
+				}
+				candidateEvaluation = evaluate(executor, numThreads, features, rows, labels, candidate, ridge, false)[0];
+				if (candidateEvaluation[0] >= value + 1e-4 * stepSize * slope) {
+					break;
+				}
+				stepSize *= 0.5;
+			}
+			final double newValue = candidateEvaluation[0];
+			double[] sNew = new double[d];
+			double[] yNew = new double[d];
+			for (int j = 0; j < d; j++) {
+				sNew[j] = candidate[j] - weights[j];
+				yNew[j] = gradient[j] - candidateEvaluation[1 + j]; // Gradient of the negated objective.
+			}
+			System.arraycopy(candidate, 0, weights, 0, d);
+			for (int j = 0; j < d; j++) {
+				gradient[j] = candidateEvaluation[1 + j];
+			}
+			final boolean converged = Math.abs(newValue - value) <= TOLERANCE * (1 + Math.abs(newValue));
+			value = newValue;
+			if (converged) {
+				return;
+			}
+			final double sy = dot(sNew, yNew);
+			if (sy > 1e-12) {
+				if (stored == LBFGSMEMORY) {
+					System.arraycopy(s, 1, s, 0, LBFGSMEMORY - 1);
+					System.arraycopy(y, 1, y, 0, LBFGSMEMORY - 1);
+					System.arraycopy(rhos, 1, rhos, 0, LBFGSMEMORY - 1);
+					stored--;
+				}
+				s[stored] = sNew;
+				y[stored] = yNew;
+				rhos[stored] = 1 / sy;
+				stored++;
+			}
+		}
+	}
+
+	private static double dot (double[] a, double[] b) {
+		double sum = 0.0;
+		for (int j = 0; j < a.length; j++) {
+			sum += a[j] * b[j];
+		}
+		return sum;
+	}
+
+	private static void axpy (double a, double[] x, double[] y) {
+		for (int j = 0; j < x.length; j++) {
+			y[j] += a * x[j];
+		}
+	}
+}
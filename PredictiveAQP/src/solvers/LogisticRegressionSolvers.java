@@ -2,30 +2,31 @@ package solvers;
 
 import static java.lang.System.out;
 
-import java.io.FileWriter;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
+import dataextraction.ArffFiles;
+import dataextraction.ColumnarDataset;
+import dataextraction.DataSplit;
 import dataextraction.ProsperDataExtractor;
 import dataextraction.CensusDataExtractor;
 import dataextraction.LendingClubDataExtractor;
 import dataextraction.MarketingDataExtractor;
+import utils.BootstrapVariance;
+import utils.DataCache;
 import utils.PerformanceAnalysis;
-import weka.classifiers.functions.Logistic;
-import weka.core.Attribute;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
+import utils.QuantileSketch;
+import utils.RandomStreams;
 
 public class LogisticRegressionSolvers {
+	public final static int COSTOPTIMALFINEBUCKETS = 200;
 	
 	/**
 	 * For the loan files : 
@@ -58,54 +59,27 @@ public class LogisticRegressionSolvers {
 		writeImprovedFile (CensusDataExtractor.FILELOCATION, CensusDataExtractor.ARFFFILELOCATION, CensusDataExtractor.TARGET,
 				CensusDataExtractor.IGNORETARGET, CensusDataExtractor.GOODTARGET, CensusDataExtractor.BADTARGET);
 				
-	 * After executing the code (for all three), we need to manually go to the arff file, and modify the class variable 
-	 * by replacing its values set with {good, bad} (remove duplicates, etc). Also make sure the class values listed in the values set
-	 * are {good,bad} in that order, and reverse them if they aren't. The first of these is the UDF value we want to select.
+	 * The class variable is written with the values set {good,bad}, in that order, and tuples with an ignored (or 
+	 * unknown) class value are dropped, so the arff file needs no manual fixing. The first of these values is the UDF
+	 * value we want to select. The csv is streamed (see ArffFiles.writeArff), so large files no longer need a large heap.
 	 * @throws Exception 
 	 */
 	public static void writeImprovedFile (String combinedFileLocation, String improvedFileLocation, Integer target, Set<String> ignoreTargets, 
 			Set<String> goodTargets, Set<String> badTargets) throws Exception {
+		writeImprovedFile(combinedFileLocation, improvedFileLocation, target, ignoreTargets, goodTargets, badTargets, null);
+	}
+	
+	/**
+	 * Like writeImprovedFile above, but keeps only the first maxAttributes attributes (and the class). null, the
+	 * default, keeps every attribute of the dataset: the old cutoff of 20, introduced to get rid of a lot of worthless
+	 * loan attributes, is no longer needed, since high cardinality attributes are hashed by the models (see 
+	 * ColumnarDataset.hashNominalAttributes).
+	 */
+	public static void writeImprovedFile (String combinedFileLocation, String improvedFileLocation, Integer target, Set<String> ignoreTargets, 
+			Set<String> goodTargets, Set<String> badTargets, Integer maxAttributes) throws Exception {
 		out.println(combinedFileLocation);
-		DataSource source = new DataSource(combinedFileLocation);
-		Instances instances;
-		instances = source.getDataSet();
-		instances.setClassIndex(target);
-		
-		for (String good : goodTargets) {
-			int i = instances.attribute(target ).indexOfValue(good);
-			instances.renameAttributeValue(target , i, "good");
-		}
-		for (String bad : badTargets) {
-			int i = instances.attribute(target ).indexOfValue(bad);
-			instances.renameAttributeValue(target , i, "bad");
-		}
-		for (String ignore : ignoreTargets) {
-			int i = instances.attribute(target ).indexOfValue(ignore);
-			if (i >= 0) {
-				instances.renameAttributeValue(target , i, "missing");
-			}
-		}
-
-		for (int i = 0; i < instances.numInstances(); i++) {
-			if (instances.instance(i).stringValue(target).equals("missing")) {
-				instances.instance(i).setClassMissing();
-			}
-		}
-		/*
-		 * The three lines below are kind of arbitrary. They were introduced for the loan data, to get rid of a lot of 
-		 * worthless attributes. And they don't affect the other datasets (<= 21 attributes).
-		 */
-		for (int i = instances.numAttributes() - 1; i >= 20; i--) {
-			//System.out.println(i);
-			if (instances.classIndex() == i) {
-				continue;
-			}
-			instances.deleteAttributeAt(i);
-		}
-		instances.deleteWithMissingClass();
-		PrintWriter outFile = new PrintWriter(new FileWriter(improvedFileLocation));
-		outFile.println(instances.toString());
-		outFile.close();
+		ArffFiles.writeArff(combinedFileLocation, improvedFileLocation, target, ignoreTargets, goodTargets, badTargets, 
+				maxAttributes);
 	}
 	
 	/**
@@ -118,60 +92,134 @@ public class LogisticRegressionSolvers {
 	 * scheme parameter :
 	 * interval-length: makes intervals of equals length (e.g. for numClasses = 10, intervals are [0,0.1), [0.1,0.2), etc)
 	 * bucket-size: makes intervals so that bucket sizes for training data are approximately equal.
+	 * cost-optimal: needs the overload taking alpha, beta, rho and costs. See costOptimalLowerBounds.
 	 */
 	public static void logisticRegressionGroups (String inputFile, Integer target, Map<String, Double> sizes, Map<String, Double> selectivities, 
 			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, int numClasses, Double trainFraction, 
 			String scheme) throws Exception {
-		DataSource source = new DataSource(inputFile);
-		Instances instances = source.getDataSet(target);
-		for (int i = 0; i < instances.numAttributes(); i++) {
-			Attribute attr = instances.attribute(i);
-			if (attr.numValues() > 50) {
-				instances.deleteAttributeAt(i);
-				i--;
-			}
-		}
-		instances.randomize(new Random());
-		Instances trainInstances = new Instances(instances, (int)(trainFraction*instances.numInstances()));
-		Instances testInstances = new Instances(instances, (int)((1-trainFraction)*instances.numInstances()));
-		for (int i = 0; i < instances.numInstances(); i++) {
-			if (Math.random() < trainFraction) {
-				trainInstances.add(instances.instance(i));
+		logisticRegressionGroups(inputFile, target, sizes, selectivities, positiveSamples, negativeSamples, numClasses, 
+				trainFraction, scheme, null, null, null, null, null);
+	}
+	
+	/**
+	 * Like logisticRegressionGroups above. alpha, beta, rho, retrieveCost and evaluateCost are the query the groups
+	 * will be used for, and are needed (only) by the cost-optimal scheme.
+	 */
+	public static void logisticRegressionGroups (String inputFile, Integer target, Map<String, Double> sizes, Map<String, Double> selectivities, 
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, int numClasses, Double trainFraction, 
+			String scheme, Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost) throws Exception {
+		ScoreColumn scores = logisticRegressionScores(inputFile, target, trainFraction);
+		logisticRegressionGroups(scores, sizes, selectivities, positiveSamples, negativeSamples, numClasses, scheme, 
+				alpha, beta, rho, retrieveCost, evaluateCost);
+		
+		// remove later
+		Double correlation = 0.0;
+		Double total = 0.0;
+		for (int i = 0; i < scores.testScores.length; i++) {
+			if (scores.testLabels[i]) {
+				correlation += scores.testScores[i];
 			} else {
-				testInstances.add(instances.instance(i));
+				correlation += 1 - scores.testScores[i];
 			}
+			total += 1.0;
 		}
-		
-		Logistic logistic = new Logistic();
-		logistic.buildClassifier(trainInstances);
-		
-		String[] classNames = new String[numClasses];
-		Double[] classLowerBounds = new Double[numClasses];
-		if (scheme.equals("bucket-size")) {
-			List<Double> probabilities = new ArrayList<Double>();
-			for (int i = 0; i < trainInstances.numInstances(); i++) {
-				final Instance instance = trainInstances.instance(i);
-				double[] distribution = logistic.distributionForInstance(instance);
-				if (distribution[0] > 1 - 0.5/numClasses) {
-					distribution[0] = 1 - 0.5/numClasses; //To prevent the value 1.0
-				}
-				probabilities.add(distribution[0]);
-			}
-			Collections.sort(probabilities);
-			int numProbs = probabilities.size();
-			for (int i=0; i < numClasses; i++) {
-				classLowerBounds[i] = probabilities.get(i*numProbs/numClasses);
-				classNames[i] = classLowerBounds[i].toString();
+		out.println(correlation/total);
+		// end remove later
+	}
+	
+	/**
+	 * Trains logistic regression on trainFraction fraction of the tuples of inputFile, and scores every training 
+	 * and test tuple exactly once. The returned ScoreColumn can be bucketed (repeatedly) by logisticRegressionGroups.
+	 * Nominal attributes with more than MAXONEHOTVALUES values are hashed into DEFAULTHASHBUCKETS values (see 
+	 * ColumnarDataset.hashNominalAttributes) rather than dropped.
+	 */
+	public static ScoreColumn logisticRegressionScores (String inputFile, Integer target, Double trainFraction) throws Exception {
+		return logisticRegressionScores(inputFile, target, trainFraction, QuantileSketch.DEFAULTERROR);
+	}
+	
+	/**
+	 * Like logisticRegressionScores above. The training scores are also summarized, while they are computed, in a 
+	 * quantile sketch with rank error about sketchError, which bucket-size boundaries are read from.
+	 */
+	public static ScoreColumn logisticRegressionScores (String inputFile, Integer target, Double trainFraction, 
+			double sketchError) throws Exception {
+		ColumnarDataset data = DataCache.getHashedDataset(inputFile, target, ColumnarDataset.MAXONEHOTVALUES,
+				ColumnarDataset.DEFAULTHASHBUCKETS);
+		return logisticRegressionScores(data, data.attributeMask(ColumnarDataset.MAXONEHOTVALUES), DataSplit.split(data.numRows(), trainFraction), 
+				sketchError);
+	}
+	
+	/**
+	 * Like logisticRegressionScores above, with the split drawn from seed. The parsed dataset and the trained model 
+	 * are cached (see DataCache), so calling this again with the same arguments only re-scores.
+	 */
+	public static ScoreColumn logisticRegressionScores (String inputFile, Integer target, Double trainFraction, long seed, 
+			double sketchError) throws Exception {
+		final ColumnarDataset data = DataCache.getHashedDataset(inputFile, target, ColumnarDataset.MAXONEHOTVALUES,
+				ColumnarDataset.DEFAULTHASHBUCKETS);
+		final boolean[] mask = data.attributeMask(ColumnarDataset.MAXONEHOTVALUES);
+		final DataSplit split = DataSplit.split(data.numRows(), trainFraction, seed);
+		final FeatureMatrix features = FeatureMatrix.encode(data, mask);
+		final String parameters = "ridge=" + LogisticRegressionModel.DEFAULTRIDGE + ",maxOneHot=" + ColumnarDataset.MAXONEHOTVALUES 
+				+ ",hashBuckets=" + ColumnarDataset.DEFAULTHASHBUCKETS;
+		LogisticRegressionModel model = DataCache.getModel(inputFile, target, split, mask, "logistic", parameters, 
+				LogisticRegressionModel.class, new Callable<LogisticRegressionModel>() {
+			@Override
+			public LogisticRegressionModel call() throws Exception {
+				return LogisticRegressionModel.train(features, split.trainRows(), data.labels(split.trainRows()));
 			}
-		} else if (scheme.equals("interval-length")) {
-			for (Integer i = 0; i < numClasses; i++) {
-				Double classNum = i.doubleValue();
-				classNum /= numClasses;
-				classLowerBounds[i] = classNum;
-				classNames[i] = classNum.toString();
+		});
+		return scoreColumn(model, features, data, split, sketchError);
+	}
+	
+	/**
+	 * Like logisticRegressionScores above, on an already loaded dataset, with the attributes selected by mask and the
+	 * rows of split. Neither the dataset nor its rows are copied, so sweeps can reuse one dataset.
+	 */
+	public static ScoreColumn logisticRegressionScores (ColumnarDataset data, boolean[] mask, DataSplit split, 
+			double sketchError) throws Exception {
+		FeatureMatrix features = FeatureMatrix.encode(data, mask);
+		LogisticRegressionModel model = LogisticRegressionModel.train(features, split.trainRows(), data.labels(split.trainRows()));
+		return scoreColumn(model, features, data, split, sketchError);
+	}
+	
+	private static ScoreColumn scoreColumn (LogisticRegressionModel model, FeatureMatrix features, ColumnarDataset data, 
+			DataSplit split, double sketchError) throws Exception {
+		final int[] trainRows = split.trainRows();
+		final int[] testRows = split.testRows();
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		QuantileSketch trainSketch = new QuantileSketch(sketchError);
+		final double[] trainScores = model.score(features, trainRows, numThreads, trainSketch);
+		return new ScoreColumn(trainScores, data.labels(trainRows), model.score(features, testRows, numThreads), 
+				data.labels(testRows), trainSketch);
+	}
+	
+	/**
+	 * Like logisticRegressionGroups above, but builds the groups from already computed scores, so the model is not 
+	 * needed. Buckets are found by binary search over the class lower bounds.
+	 */
+	public static void logisticRegressionGroups (ScoreColumn scores, Map<String, Double> sizes, Map<String, Double> selectivities, 
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, int numClasses, String scheme) {
+		logisticRegressionGroups(scores, sizes, selectivities, positiveSamples, negativeSamples, numClasses, scheme, 
+				null, null, null, null, null);
+	}
+	
+	public static void logisticRegressionGroups (ScoreColumn scores, Map<String, Double> sizes, Map<String, Double> selectivities, 
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, int numClasses, String scheme, 
+			Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost) {
+		final double[] classLowerBounds;
+		if (scheme.equals("cost-optimal")) {
+			if (alpha == null || beta == null || rho == null || retrieveCost == null || evaluateCost == null) {
+				throw new IllegalArgumentException("cost-optimal scheme needs alpha, beta, rho and costs");
 			}
+			classLowerBounds = costOptimalLowerBounds(scores, numClasses, alpha, beta, rho, retrieveCost, evaluateCost);
 		} else {
-			throw new IllegalArgumentException("scheme parameter not recognized");
+			classLowerBounds = classLowerBounds(scores.trainSketch(), numClasses, scheme);
+		}
+		numClasses = classLowerBounds.length;
+		String[] classNames = new String[numClasses];
+		for (int i = 0; i < numClasses; i++) {
+			classNames[i] = Double.toString(classLowerBounds[i]);
 		}
 		
 		for (int i = 0; i < numClasses; i++) {
@@ -181,71 +229,301 @@ public class LogisticRegressionSolvers {
 			negativeSamples.put(classNames[i], 0);
 		}
 		
-		for (int i = 0; i < trainInstances.numInstances(); i++) {
-			final Instance instance = trainInstances.instance(i);
-			String className = "";
-			double[] distribution = logistic.distributionForInstance(instance);
-			for (int classNum = numClasses - 1 ; classNum >=0; classNum--) {
-				if (distribution[0] >= classLowerBounds[classNum]) {
-					className = classNames[classNum];
-					break;
-				}
-			}
-			if (instance.classValue() < 0.5) {
-				positiveSamples.put(className, 1 + positiveSamples.get(className));
+		int[] positiveCounts = new int[numClasses];
+		int[] negativeCounts = new int[numClasses];
+		for (int i = 0; i < scores.trainScores.length; i++) {
+			final int classNum = bucketOf(classLowerBounds, scores.trainScores[i]);
+			if (scores.trainLabels[i]) {
+				positiveCounts[classNum]++;
 			} else {
-				negativeSamples.put(className, 1 + negativeSamples.get(className));
+				negativeCounts[classNum]++;
 			}
 		}
 		
-		for (int i = 0; i < testInstances.numInstances(); i++) {
-			final Instance instance = testInstances.instance(i);
-			String className = classNames[0];
-			double[] distribution = new double[2];
-			try{
-				distribution = logistic.distributionForInstance(instance);
-			} catch (Exception e) {
-				if (instance == null) {
-					System.out.println("nuLL");
-				}
+		int[] testCounts = new int[numClasses];
+		int[] testPositiveCounts = new int[numClasses];
+		for (int i = 0; i < scores.testScores.length; i++) {
+			final int classNum = bucketOf(classLowerBounds, scores.testScores[i]);
+			testCounts[classNum]++;
+			if (scores.testLabels[i]) {
+				testPositiveCounts[classNum]++;
+			}
+		}
+		
+		// Equal lower bounds give equal class names, so counts are accumulated into the maps.
+		for (int classNum = 0; classNum < numClasses; classNum++) {
+			final String className = classNames[classNum];
+			positiveSamples.put(className, positiveSamples.get(className) + positiveCounts[classNum]);
+			negativeSamples.put(className, negativeSamples.get(className) + negativeCounts[classNum]);
+			sizes.put(className, sizes.get(className) + testCounts[classNum]);
+			selectivities.put(className, selectivities.get(className) + testPositiveCounts[classNum]);
+		}
+		for (String className : sizes.keySet()) {
+			selectivities.put(className, selectivities.get(className) / sizes.get(className));
+		}
+	}
+	
+	/**
+	 * Bootstrap variances of the selectivities of the "bucket-size" groups of logisticRegressionGroups, keyed like its
+	 * maps. Each group's selectivity is estimated from the training tuples in its bucket, but the bucket boundaries 
+	 * are quantiles of those same training scores, so the binomial variance of the constraint functions misses the 
+	 * boundaries' own uncertainty. Here every Poisson bootstrap replicate (BootstrapVariance.replicates) re-derives
+	 * the boundaries as classLowerBounds does, as the smallest scores whose cumulative weight exceeds i / numClasses
+	 * of the replicate's total (exactly, where classLowerBounds takes them from a sketch), and smooths the bucket 
+	 * selectivities as (positives + 1) / (tuples + 2), like the constraint functions. Bucket k's variance is that of 
+	 * the replicates' k-th bucket selectivities, and at least the binomial one of the constraint functions. Equal 
+	 * lower bounds merge groups, in the replicates as in logisticRegressionGroups, and merged groups keep the largest
+	 * variance.
+	 */
+	public static Map<String, Double> bootstrapGroupVariances (ScoreColumn scores, final int numClasses, int replicates, 
+			long seed) throws Exception {
+		final double[] classLowerBounds = classLowerBounds(scores.trainSketch(), numClasses, "bucket-size");
+		final int n = scores.trainScores.length;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		final double[] trainScores = scores.trainScores;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer arg0, Integer arg1) {
+				return Double.compare(trainScores[arg0], trainScores[arg1]);
 			}
-			for (int classNum = numClasses - 1 ; classNum >=0; classNum--) {
-				if (distribution[0] >= classLowerBounds[classNum]) {
-					className = classNames[classNum];
-					break;
+		});
+		final double[] sortedScores = new double[n];
+		final boolean[] sortedLabels = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			sortedScores[i] = trainScores[order[i]];
+			sortedLabels[i] = scores.trainLabels[order[i]];
+		}
+		final double[][] replicateSelectivities = BootstrapVariance.replicates(n, replicates, 
+				Runtime.getRuntime().availableProcessors(), seed, new BootstrapVariance.Statistic() {
+			@Override
+			public double[] of (int[] weights) {
+				long total = 0;
+				for (int weight : weights) {
+					total += weight;
 				}
+				double[] lowerBounds = new double[numClasses];
+				long cumulative = 0;
+				int bucket = 0;
+				for (int i = 0; i < n && bucket < numClasses; i++) {
+					cumulative += weights[i];
+					while (bucket < numClasses && cumulative > ((double) bucket) / numClasses * total) {
+						lowerBounds[bucket++] = Math.min(sortedScores[i], 1 - 0.5/numClasses); // As in classLowerBounds.
+					}
+				}
+				double[] bucketWeights = new double[numClasses];
+				double[] bucketPositiveWeights = new double[numClasses];
+				for (int i = 0; i < n; i++) {
+					if (weights[i] > 0) {
+						final int tupleBucket = bucketOf(lowerBounds, sortedScores[i]);
+						bucketWeights[tupleBucket] += weights[i];
+						if (sortedLabels[i]) {
+							bucketPositiveWeights[tupleBucket] += weights[i];
+						}
+					}
+				}
+				double[] selectivities = new double[numClasses];
+				for (bucket = numClasses - 1; bucket >= 0; bucket--) {
+					// Buckets with equal lower bounds are one group, whose tuples bucketOf puts in the last of them.
+					selectivities[bucket] = bucket + 1 < numClasses && lowerBounds[bucket] == lowerBounds[bucket + 1] 
+							? selectivities[bucket + 1] 
+							: (bucketPositiveWeights[bucket] + 1) / (bucketWeights[bucket] + 2);
+				}
+				return selectivities;
 			}
-			sizes.put(className, sizes.get(className) + 1);
-			if (instance.classValue() < 0.5) {
-				selectivities.put(className, selectivities.get(className) + 1);
+		});
+		
+		int[] positiveCounts = new int[numClasses];
+		int[] counts = new int[numClasses];
+		for (int i = 0; i < n; i++) {
+			final int bucket = bucketOf(classLowerBounds, scores.trainScores[i]);
+			counts[bucket]++;
+			if (scores.trainLabels[i]) {
+				positiveCounts[bucket]++;
 			}
 		}
-		for (String className : sizes.keySet()) {
-			selectivities.put(className, selectivities.get(className) / sizes.get(className));
+		for (int bucket = numClasses - 2; bucket >= 0; bucket--) {
+			if (classLowerBounds[bucket] == classLowerBounds[bucket + 1]) {
+				counts[bucket] = counts[bucket + 1];
+				positiveCounts[bucket] = positiveCounts[bucket + 1];
+			}
+		}
+		Map<String, Double> variances = new HashMap<String, Double>();
+		double[] bucketSelectivities = new double[replicates];
+		for (int bucket = 0; bucket < numClasses; bucket++) {
+			for (int replicate = 0; replicate < replicates; replicate++) {
+				bucketSelectivities[replicate] = replicateSelectivities[replicate][bucket];
+			}
+			final String className = Double.toString(classLowerBounds[bucket]);
+			final double selectivity = (positiveCounts[bucket] + 1.0) / (counts[bucket] + 2);
+			final double variance = Math.max(BootstrapVariance.variance(bucketSelectivities, replicates), 
+					selectivity * (1 - selectivity) / (counts[bucket] + 3));
+			if (!variances.containsKey(className) || variances.get(className) < variance) {
+				variances.put(className, variance);
+			}
+		}
+		return variances;
+	}
+	
+	/**
+	 * Lower bounds of the numClasses score buckets, in increasing order.
+	 * interval-length: intervals of equal length.
+	 * bucket-size: bucket sizes for the training scores are approximately equal. The boundaries are quantiles of 
+	 * trainSketch, so they are within the sketch's rank error of the exact ones.
+	 */
+	static double[] classLowerBounds (QuantileSketch trainSketch, int numClasses, String scheme) {
+		double[] classLowerBounds = new double[numClasses];
+		if (scheme.equals("bucket-size")) {
+			double[] fractions = new double[numClasses];
+			for (int i = 0; i < numClasses; i++) {
+				fractions[i] = ((double) i) / numClasses;
+			}
+			final double[] quantiles = trainSketch.quantiles(fractions);
+			for (int i = 0; i < numClasses; i++) {
+				classLowerBounds[i] = Math.min(quantiles[i], 1 - 0.5/numClasses); //To prevent the value 1.0
+			}
+		} else if (scheme.equals("interval-length")) {
+			for (int i = 0; i < numClasses; i++) {
+				classLowerBounds[i] = ((double) i) / numClasses;
+			}
+		} else {
+			throw new IllegalArgumentException("scheme parameter not recognized");
+		}
+		return classLowerBounds;
+	}
+	
+	/**
+	 * Lower bounds of at most numClasses score buckets that (greedily) minimize the planner cost of sizesKnownEvaluate
+	 * on the resulting groups. The sorted training scores are first cut into up to COSTOPTIMALFINEBUCKETS buckets of 
+	 * about equal size, and then the pair of adjacent buckets whose merge raises the cost least is merged, until 
+	 * numClasses buckets are left. Bucket counts come from prefix counts over the sorted scores, so trying a merge 
+	 * costs one sizesKnownEvaluate call. Group sizes are the training counts scaled to the test set.
+	 */
+	static double[] costOptimalLowerBounds (ScoreColumn scores, int numClasses, Double alpha, Double beta, Double rho, 
+			Double retrieveCost, Double evaluateCost) {
+		final int numTrain = scores.numTrain();
+		if (numTrain == 0) {
+			throw new IllegalArgumentException("No training scores");
 		}
+		final double[] sorted = scores.trainScores.clone();
+		Arrays.sort(sorted);
+		int numPositive = 0;
+		for (final boolean label : scores.trainLabels) {
+			if (label) {
+				numPositive++;
+			}
+		}
+		final double[] sortedPositive = new double[numPositive];
+		int p = 0;
+		for (int i = 0; i < numTrain; i++) {
+			if (scores.trainLabels[i]) {
+				sortedPositive[p++] = scores.trainScores[i];
+			}
+		}
+		Arrays.sort(sortedPositive);
 		
-		// remove later
-		Double correlation = 0.0;
-		Double total = 0.0;
-		for (int i = 0; i < testInstances.numInstances(); i++) {
-			final Instance instance = testInstances.instance(i);
-			double[] distribution = new double[2];
-			try{
-				distribution = logistic.distributionForInstance(instance);
-			} catch (Exception e) {
-				if (instance == null) {
-					System.out.println("nuLL");
+		// Candidate bounds, and prefix counts of all / positive training scores below each of them.
+		final int numFine = Math.min(COSTOPTIMALFINEBUCKETS, numTrain);
+		List<Double> candidates = new ArrayList<Double>();
+		for (int j = 0; j < numFine; j++) {
+			final double bound = sorted[(int) ((long) j * numTrain / numFine)];
+			if (candidates.isEmpty() || candidates.get(candidates.size() - 1) < bound) {
+				candidates.add(bound);
+			}
+		}
+		final int numCandidates = candidates.size();
+		final int[] countBelow = new int[numCandidates + 1];
+		final int[] positiveBelow = new int[numCandidates + 1];
+		for (int j = 1; j < numCandidates; j++) {
+			countBelow[j] = countBelow(sorted, candidates.get(j));
+			positiveBelow[j] = countBelow(sortedPositive, candidates.get(j));
+		}
+		countBelow[numCandidates] = numTrain;
+		positiveBelow[numCandidates] = numPositive;
+		final double scale = scores.numTest() > 0 ? ((double) scores.numTest()) / numTrain : 1.0;
+		
+		// starts holds the candidate index of each current bucket's lower bound.
+		List<Integer> starts = new ArrayList<Integer>();
+		for (int j = 0; j < numCandidates; j++) {
+			starts.add(j);
+		}
+		while (starts.size() > numClasses) {
+			int bestMerge = -1;
+			Double bestCost = Double.MAX_VALUE;
+			for (int m = 1; m < starts.size(); m++) {
+				final Integer removed = starts.remove(m);
+				final Double cost = bucketsCost(starts, countBelow, positiveBelow, scale, alpha, beta, rho, retrieveCost, 
+						evaluateCost);
+				starts.add(m, removed);
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestMerge = m;
 				}
 			}
-			if (instance.classValue() < 0.5) {
-				correlation += distribution[0];
+			starts.remove(bestMerge);
+		}
+		
+		double[] classLowerBounds = new double[starts.size()];
+		for (int i = 0; i < starts.size(); i++) {
+			classLowerBounds[i] = candidates.get(starts.get(i));
+		}
+		classLowerBounds[0] = 0.0;
+		return classLowerBounds;
+	}
+	
+	/**
+	 * Number of values in the sorted array that are smaller than bound.
+	 */
+	private static int countBelow (double[] sorted, double bound) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (sorted[mid] < bound) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Planner cost of the buckets starting at the given candidate indices.
+	 */
+	private static Double bucketsCost (List<Integer> starts, int[] countBelow, int[] positiveBelow, double scale, 
+			Double alpha, Double beta, Double rho, Double retrieveCost, Double evaluateCost) {
+		Map<String, Double> sizes = new HashMap<String, Double>();
+		Map<String, Double> selectivities = new HashMap<String, Double>();
+		for (int i = 0; i < starts.size(); i++) {
+			final int from = starts.get(i);
+			final int to = i + 1 < starts.size() ? starts.get(i + 1) : countBelow.length - 1;
+			final int count = countBelow[to] - countBelow[from];
+			final int positive = positiveBelow[to] - positiveBelow[from];
+			final String key = Integer.toString(i);
+			sizes.put(key, count * scale);
+			selectivities.put(key, ((double) positive) / count);
+		}
+		return ProbabilisticSolvers.sizesKnownCost(sizes, selectivities, alpha, beta, rho, retrieveCost, evaluateCost);
+	}
+	
+	/**
+	 * Index of the highest bucket whose lower bound is at most score. Scores below every bound go to bucket 0.
+	 */
+	static int bucketOf (double[] classLowerBounds, double score) {
+		int low = 0;
+		int high = classLowerBounds.length - 1;
+		while (low < high) {
+			final int mid = (low + high + 1) >>> 1;
+			if (classLowerBounds[mid] <= score) {
+				low = mid;
 			} else {
-				correlation += distribution[1];
+				high = mid - 1;
 			}
-			total += 1.0;
 		}
-		out.println(correlation/total);
-		// end remove later
+		return low;
 	}
 	
 	public static void main(String[] argv) throws Exception {
@@ -257,8 +535,13 @@ public class LogisticRegressionSolvers {
 		Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
 		logisticRegressionGroups(ProsperDataExtractor.ARFFFILELOCATION, ProsperDataExtractor.TARGET, sizes, selectivities, positiveSamples, negativeSamples, numClasses, trainFraction, "bucket-size");
 		if(1!=2)return;
+		// The dataset is parsed once (DataCache), and every fraction uses the same seed, so larger fractions add 
+		// training rows.
+		final long seed = RandomStreams.newStream().nextLong();
 		for (trainFraction = 0.02; trainFraction < 0.03; trainFraction += 0.02) {
-			logisticRegressionGroups(CensusDataExtractor.ARFFFILELOCATION, CensusDataExtractor.TARGET, sizes, selectivities, positiveSamples, negativeSamples, numClasses, trainFraction, "bucket-size");
+			ScoreColumn scores = logisticRegressionScores(CensusDataExtractor.ARFFFILELOCATION, CensusDataExtractor.TARGET, 
+					trainFraction, seed, QuantileSketch.DEFAULTERROR);
+			logisticRegressionGroups(scores, sizes, selectivities, positiveSamples, negativeSamples, numClasses, "bucket-size");
 			System.out.println(sizes.toString());
 			//if(1!=2)return;
 			System.out.println("Fraction: " + trainFraction);
@@ -4,133 +4,244 @@ import static java.lang.System.out;
 
 import java.io.FileWriter;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import utils.DataCache;
 import utils.PerformanceAnalysis;
-import weka.classifiers.functions.Logistic;
-import weka.core.Attribute;
+import utils.RandomStreams;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
 import weka.classifiers.collective.CollectiveClassifier;
 import weka.classifiers.collective.meta.SimpleCollective; // Use proper semi-supervised classifier.
 
 import dataextraction.CensusDataExtractor;
+import dataextraction.ColumnarDataset;
+import dataextraction.DataSplit;
 import dataextraction.LendingClubDataExtractor;
 import dataextraction.MarketingDataExtractor;
 import dataextraction.ProsperDataExtractor;
 
 public class MLBaselineSolvers {
+	public final static int COLLECTIVERESTARTS = 1;
+	public final static int COLLECTIVEITERATIONS = 10;
 	/**
 	 * Like logisticRegressionGroups, but uses semi supervised learning. It uses the arff file at IMPROVEDFILELOCATION. The file needs to be created using 
 	 * the procedure described near the top of logisticRegressionSolvers. 
 	 */
 	public static void semiSupervisedLearningGroups (String inputFile, Integer target, Map<String, Double> sizes, Map<String, Double> selectivities, 
 			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, Double trainFraction) throws Exception {
-		SimpleCollective classifier = new SimpleCollective();
-		
-		DataSource source = new DataSource(inputFile);
-		Instances instances = source.getDataSet(target);
-		for (int i = 0; i < instances.numAttributes(); i++) {
-			Attribute attr = instances.attribute(i);
-			if (attr.numValues() > 50) {
-				instances.deleteAttributeAt(i);
-				i--;
-			}
-		}
-		instances.randomize(new Random());
-		Instances trainInstances = new Instances(instances, (int)(trainFraction*instances.numInstances()));
-		Instances testInstances = new Instances(instances, (int)((1-trainFraction)*instances.numInstances()));
-		for (int i = 0; i < instances.numInstances(); i++) {
-			if (Math.random() < trainFraction) {
-				trainInstances.add(instances.instance(i));
-			} else {
-				testInstances.add(instances.instance(i));
+		ColumnarDataset data = DataCache.getHashedDataset(inputFile, target, ColumnarDataset.MAXONEHOTVALUES,
+				ColumnarDataset.DEFAULTHASHBUCKETS);
+		semiSupervisedLearningGroups(data, data.attributeMask(ColumnarDataset.MAXONEHOTVALUES), DataSplit.split(data.numRows(), trainFraction), sizes, 
+				selectivities, positiveSamples, negativeSamples);
+	}
+	
+	/**
+	 * Like semiSupervisedLearningGroups above, with the split drawn from seed. The parsed dataset and the trained 
+	 * classifier are cached (see DataCache), so sweeps and repeated runs with the same arguments skip both.
+	 */
+	public static void semiSupervisedLearningGroups (String inputFile, Integer target, Map<String, Double> sizes, Map<String, Double> selectivities, 
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, Double trainFraction, long seed) throws Exception {
+		ColumnarDataset data = DataCache.getHashedDataset(inputFile, target, ColumnarDataset.MAXONEHOTVALUES,
+				ColumnarDataset.DEFAULTHASHBUCKETS);
+		final boolean[] mask = data.attributeMask(ColumnarDataset.MAXONEHOTVALUES);
+		final DataSplit split = DataSplit.split(data.numRows(), trainFraction, seed);
+		final Instances trainInstances = data.toInstances(split.trainRows(), mask);
+		final Instances testInstances = data.toInstances(split.testRows(), mask);
+		final String parameters = "maxOneHot=" + ColumnarDataset.MAXONEHOTVALUES + ",hashBuckets=" + ColumnarDataset.DEFAULTHASHBUCKETS 
+				+ ",restarts=" + COLLECTIVERESTARTS + ",iterations=" + COLLECTIVEITERATIONS;
+		SimpleCollective classifier = DataCache.getModel(inputFile, target, split, mask, "simple-collective", parameters, 
+				SimpleCollective.class, new Callable<SimpleCollective>() {
+			@Override
+			public SimpleCollective call() throws Exception {
+				return trainCollective(trainInstances, testInstances);
 			}
-		}
-		
-		Instance myInstance = testInstances.firstInstance();
+		});
+		semiSupervisedStatistics(classifier, trainInstances, testInstances);
+	}
+	
+	/**
+	 * Like semiSupervisedLearningGroups above, on an already loaded dataset, with the attributes selected by mask and 
+	 * the rows of split. The training and test Instances are built once, directly with only the selected attributes.
+	 */
+	public static void semiSupervisedLearningGroups (ColumnarDataset data, boolean[] mask, DataSplit split, Map<String, Double> sizes, 
+			Map<String, Double> selectivities, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) 
+			throws Exception {
+		Instances trainInstances = data.toInstances(split.trainRows(), mask);
+		Instances testInstances = data.toInstances(split.testRows(), mask);
+		semiSupervisedStatistics(trainCollective(trainInstances, testInstances), trainInstances, testInstances);
+	}
+	
+	private static SimpleCollective trainCollective (Instances trainInstances, Instances testInstances) throws Exception {
+		SimpleCollective classifier = new SimpleCollective();
 		
 		//out.println("Training data:\t" + trainInstances.numInstances());
 		//out.println("Test data:\t" + testInstances.numInstances());
 		
 		Long time1 = System.currentTimeMillis();
-		classifier.setNumRestarts(1);
-		classifier.setNumIterations(10);
+		classifier.setNumRestarts(COLLECTIVERESTARTS);
+		classifier.setNumIterations(COLLECTIVEITERATIONS);
 		classifier.buildClassifier(trainInstances, testInstances);
 		Long time2 = System.currentTimeMillis();
 		//out.println("Training Time:\t" + (time2 -time1));
-		
+		return classifier;
+	}
+	
+	/**
+	 * Prints retrieves, evaluates, precision and recall of using classifier's predictions on the test tuples, with
+	 * the training tuples evaluated.
+	 */
+	private static void semiSupervisedStatistics (SimpleCollective classifier, Instances trainInstances, Instances testInstances) 
+			throws Exception {
+		final double[] statistics = semiSupervisedStatisticsArray(classifier, trainInstances, testInstances);
+		out.println(statistics[0] + "\t" + statistics[1] + "\t" + statistics[2] + "\t" + statistics[3]);
+	}
+	
+	/**
+	 * {retrieves, evaluates, precision, recall} of using classifier's predictions on the test tuples, with the 
+	 * training tuples evaluated. Each test tuple gets one distributionForInstance call, and is predicted positive if 
+	 * the first class value is the most probable one (as classifyInstance would).
+	 */
+	private static double[] semiSupervisedStatisticsArray (SimpleCollective classifier, Instances trainInstances, 
+			Instances testInstances) throws Exception {
 		double truePositives = 0.0;
 		double falsePositives = 0.0;
 		double falseNegatives = 0.0;
 		double trueNegatives = 0.0;
 		for (Instance instance : testInstances) {
-			double[] distribution = classifier.distributionForInstance(instance);	
-			if (Math.random() < 0.005) {
-				//out.println(distribution[0] + ", " + distribution[1] + "\t" + classification + "\t" + trueClass);
-			}
-			
-			final Double classification = classifier.classifyInstance(instance);
-			final Double trueClass = instance.classValue();
-			
-			double score = Math.abs(trueClass - distribution[0]);
-			double prob = distribution[1];
-			/*
-			if (trueClass.equals(0.0)) {
-				truePositives += prob;
-				falseNegatives += 1 - prob;
-			} else {
-				falsePositives += prob;
-				trueNegatives += 1 - prob;
+			final double[] distribution = classifier.distributionForInstance(instance);
+			int classification = 0;
+			for (int c = 1; c < distribution.length; c++) {
+				if (distribution[c] > distribution[classification]) {
+					classification = c;
+				}
 			}
-			*/
-			if (trueClass.equals(0.0)) {
-				if (classification.equals(0.0)) {
+			if (instance.classValue() < 0.5) {
+				if (classification == 0) {
 					truePositives += 1.0;
 				} else {
 					falseNegatives += 1.0;
 				}
 			} else {
-				if (classification.equals(0.0)) {
+				if (classification == 0) {
 					falsePositives += 1.0;
 				} else {
 					trueNegatives += 1.0;
 				}
 			}
-			
 		}
 		
 		final double evaluates = trainInstances.numInstances();
 		final double retrieves = truePositives + falsePositives + evaluates;
 		
 		for (Instance instance : trainInstances) {
-			Double classValue = instance.classValue();
-			if (classValue.equals(0.0)) {
+			if (instance.classValue() < 0.5) {
 				truePositives += 1.0;
 			} else {
 				trueNegatives += 1.0;
 			}
 		}
 		
-		/*
-		out.println("TruePositives:\t" + truePositives/testInstances.numInstances());
-		out.println("FalsePositives:\t" + falsePositives/testInstances.numInstances());
-		out.println("FalseNegatives:\t" + falseNegatives/testInstances.numInstances());
-		out.println("TrueNegatives:\t" + trueNegatives/testInstances.numInstances());
-		*/
-		Double precision = truePositives / (truePositives + falsePositives);
-		Double recall = truePositives / (truePositives + falseNegatives);
-		out.println(retrieves + "\t" + evaluates + "\t" + precision + "\t" + recall);
-		
+		final double precision = truePositives / (truePositives + falsePositives);
+		final double recall = truePositives / (truePositives + falseNegatives);
+		return new double[] {retrieves, evaluates, precision, recall};
+	}
+	
+	/**
+	 * Runs the semi supervised baseline for every trainFraction concurrently on numThreads threads, on one shared 
+	 * dataset (split with seed), and prints one table. Training of each configuration gets budgetMillis of wall clock 
+	 * time, and a configuration that exceeds it is reported as a timeout. Weka's buildClassifier doesn't check for 
+	 * interrupts, so a timed out training can't actually be stopped: its executor is shut down with shutdownNow, but 
+	 * the (daemon) thread runs on until training ends. So that abandoned trainers don't keep competing for the CPU with 
+	 * the configurations being timed, the configurations are started in increasing trainFraction order (training time 
+	 * grows with the training set), and once one times out, the larger ones are reported as skipped without being 
+	 * started.
+	 */
+	public static void semiSupervisedSweep (String inputFile, Integer target, double[] trainFractions, long seed, 
+			final long budgetMillis, int numThreads) throws Exception {
+		final ColumnarDataset data = DataCache.getHashedDataset(inputFile, target, ColumnarDataset.MAXONEHOTVALUES,
+				ColumnarDataset.DEFAULTHASHBUCKETS);
+		final boolean[] mask = data.attributeMask(ColumnarDataset.MAXONEHOTVALUES);
+		final double[] sortedFractions = trainFractions.clone();
+		Arrays.sort(sortedFractions);
+		final double[] smallestTimeout = {Double.POSITIVE_INFINITY}; // Smallest trainFraction that timed out so far.
+		final double[] skipped = new double[0];
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		Map<Double, Future<double[]>> futures = new HashMap<Double, Future<double[]>>();
+		try {
+			for (final double trainFraction : sortedFractions) {
+				if (futures.containsKey(trainFraction)) {
+					continue;
+				}
+				final DataSplit split = DataSplit.split(data.numRows(), trainFraction, seed);
+				futures.put(trainFraction, executor.submit(new Callable<double[]>() {
+					@Override
+					public double[] call() throws Exception {
+						synchronized (smallestTimeout) {
+							if (trainFraction >= smallestTimeout[0]) {
+								return skipped;
+							}
+						}
+						final Instances trainInstances = data.toInstances(split.trainRows(), mask);
+						final Instances testInstances = data.toInstances(split.testRows(), mask);
+						ExecutorService trainer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r);
+								thread.setDaemon(true); // An abandoned trainer doesn't keep the JVM alive.
+								return thread;
+							}
+						});
+						SimpleCollective classifier;
+						final long start = System.currentTimeMillis();
+						try {
+							classifier = trainer.submit(new Callable<SimpleCollective>() {
+								@Override
+								public SimpleCollective call() throws Exception {
+									return trainCollective(trainInstances, testInstances);
+								}
+							}).get(budgetMillis, TimeUnit.MILLISECONDS);
+						} catch (TimeoutException e) {
+							synchronized (smallestTimeout) {
+								smallestTimeout[0] = Math.min(smallestTimeout[0], trainFraction);
+							}
+							return null;
+						} finally {
+							trainer.shutdownNow();
+						}
+						final long trainMillis = System.currentTimeMillis() - start;
+						final double[] statistics = semiSupervisedStatisticsArray(classifier, trainInstances, testInstances);
+						return new double[] {statistics[0], statistics[1], statistics[2], statistics[3], trainMillis};
+					}
+				}));
+			}
+			out.println("trainFraction\tretrieves\tevaluates\tprecision\trecall\ttrainMillis");
+			for (final double trainFraction : trainFractions) {
+				final double[] row = LogisticRegressionModel.getResult(futures.get(trainFraction));
+				if (row == null) {
+					out.println(trainFraction + "\ttimeout (" + budgetMillis + " ms)");
+				} else if (row == skipped) {
+					out.println(trainFraction + "\tskipped (a smaller trainFraction timed out)");
+				} else {
+					out.println(trainFraction + "\t" + row[0] + "\t" + row[1] + "\t" + row[2] + "\t" + row[3] + "\t" + 
+							(long) row[4]);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
 	}
 	
 	public static void logisticImputation (String inputFile, Integer target, Map<String, Double> statistics, Double trainFraction) 
@@ -181,20 +292,12 @@ public class MLBaselineSolvers {
 			logisticImputation (inputFileLocation, target, statistics, trainFraction);
 		}
 		if(1!=2) return;*/
-		Map<String, Double> sizes = new HashMap<String, Double>();
-		Map<String, Double> selectivities = new HashMap<String, Double>();
-		Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
-		Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
-		for (trainFraction = 0.55; trainFraction < 0.7; trainFraction += 0.02) {
-			semiSupervisedLearningGroups(inputFileLocation, target, sizes, selectivities, positiveSamples, negativeSamples, trainFraction);
-			/*
-			System.out.println(sizes.toString());
-			System.out.println("Fraction: " + trainFraction);
-			System.out.println(sizes.toString());
-			System.out.println(selectivities.toString());
-			System.out.println(positiveSamples.toString());
-			System.out.println(negativeSamples.toString());
-			*/
+		final long seed = RandomStreams.newStream().nextLong();
+		double[] trainFractions = new double[8];
+		for (int i = 0; i < trainFractions.length; i++) {
+			trainFractions[i] = 0.55 + 0.02 * i;
 		}
+		semiSupervisedSweep(inputFileLocation, target, trainFractions, seed, 10 * 60 * 1000L, 
+				Runtime.getRuntime().availableProcessors());
 	}
 }
@@ -0,0 +1,176 @@
+package solvers;
+
+import static java.lang.System.out;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import dataextraction.CensusDataExtractor;
+import dataextraction.ColumnarDataset;
+import dataextraction.DataSplit;
+import utils.DataCache;
+import utils.QuantileSketch;
+import utils.RandomStreams;
+
+/**
+ * Query execution over logistic regression score buckets, where the model is refined with the labels of the tuples
+ * the query evaluates. The tuples to be processed are split into numPhases random batches. Before each batch, the
+ * batch is scored and re-bucketed with the current model, the bucket selectivities are estimated from the labeled
+ * tuples scored with the same model, and sizesKnownEvaluate plans the batch. After the batch, its evaluated tuples
+ * are added to the labeled tuples, and the model takes one online Newton step (LogisticRegressionModel.update) on
+ * them as a mini-batch, so later batches are bucketed by a better model without refitting on the earlier tuples.
+ * Which tuples get evaluated depends on their bucket, so each labeled tuple is weighted by one over the probability
+ * that it was labeled, both in the selectivity estimates and in the model update.
+ */
+public class OnlineLogisticSolvers {
+	/**
+	 * Runs the query on the test rows of split, with the training rows as the initially labeled tuples. If refine is
+	 * false, the initial model is used for every batch. The rows are shuffled and the plans executed with a Random
+	 * seeded with seed. Returns {retrieves, evaluates, precision, recall} over the test rows.
+	 */
+	public static double[] onlineRefinementQuery (ColumnarDataset data, boolean[] mask, DataSplit split, int numClasses,
+			String scheme, Double alpha, Double beta, Double rho, int numPhases, boolean refine, long seed) throws Exception {
+		return onlineRefinementQuery(data, mask, split, numClasses, scheme, alpha, beta, rho, numPhases, refine, seed, null);
+	}
+
+	/**
+	 * Like onlineRefinementQuery above, also printing the evaluates of every phase to progress, if not null.
+	 */
+	public static double[] onlineRefinementQuery (ColumnarDataset data, boolean[] mask, DataSplit split, int numClasses,
+			String scheme, Double alpha, Double beta, Double rho, int numPhases, boolean refine, long seed, 
+			PrintStream progress) throws Exception {
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		final FeatureMatrix features = FeatureMatrix.encode(data, mask);
+		int[] labeledRows = split.trainRows().clone();
+		boolean[] labels = data.labels(labeledRows);
+		double[] weights = new double[labeledRows.length];
+		Arrays.fill(weights, 1 / split.trainFraction());
+		int numLabeled = labeledRows.length;
+		LogisticRegressionModel model = LogisticRegressionModel.train(features, labeledRows, labels);
+		// Full curvature when the model was fit by Newton's method, else just its diagonal.
+		final double[] curvature = refine ? model.precision(features, labeledRows, weights, LogisticRegressionModel.DEFAULTRIDGE,
+				features.numFeatures() > LogisticRegressionModel.MAXNEWTONFEATURES) : null;
+
+		final Random random = new RandomStreams.SplitMixRandom(seed);
+		final int[] rows = split.testRows().clone();
+		for (int i = rows.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int row = rows[i];
+			rows[i] = rows[j];
+			rows[j] = row;
+		}
+
+		double retrieves = 0.0;
+		double evaluates = 0.0;
+		double truePositives = 0.0;
+		double falsePositives = 0.0;
+		double falseNegatives = 0.0;
+		for (int phase = 0; phase < numPhases; phase++) {
+			final int[] batch = Arrays.copyOfRange(rows, (int) ((long) phase * rows.length / numPhases),
+					(int) ((long) (phase + 1) * rows.length / numPhases));
+			if (batch.length == 0) {
+				continue;
+			}
+			QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULTERROR);
+			final double[] batchScores = model.score(features, batch, numThreads, sketch);
+			final int[] labeled = Arrays.copyOf(labeledRows, numLabeled);
+			final double[] labeledScores = model.score(features, labeled, numThreads);
+			final double[] classLowerBounds = LogisticRegressionSolvers.classLowerBounds(sketch, numClasses, scheme);
+
+			// Inverse probability weighted labeled tuples, and the (unweighted) number of them, per bucket.
+			final double[] positive = new double[numClasses];
+			final double[] total = new double[numClasses];
+			final int[] counts = new int[numClasses];
+			for (int i = 0; i < numLabeled; i++) {
+				final int bucket = LogisticRegressionSolvers.bucketOf(classLowerBounds, labeledScores[i]);
+				total[bucket] += weights[i];
+				counts[bucket]++;
+				if (labels[i]) {
+					positive[bucket] += weights[i];
+				}
+			}
+			final int[] batchBuckets = new int[batch.length];
+			final int[] bucketSizes = new int[numClasses];
+			for (int i = 0; i < batch.length; i++) {
+				batchBuckets[i] = LogisticRegressionSolvers.bucketOf(classLowerBounds, batchScores[i]);
+				bucketSizes[batchBuckets[i]]++;
+			}
+			Map<String, Double> sizes = new HashMap<String, Double>();
+			Map<String, Double> selectivities = new HashMap<String, Double>();
+			for (int bucket = 0; bucket < numClasses; bucket++) {
+				if (bucketSizes[bucket] > 0) {
+					final String key = Integer.toString(bucket);
+					sizes.put(key, (double) bucketSizes[bucket]);
+					// Smoothed like (positives + 1) / (count + 2), with the weights rescaled to sum to count.
+					final double scale = counts[bucket] > 0 ? counts[bucket] / total[bucket] : 0.0;
+					selectivities.put(key, (positive[bucket] * scale + 1.0) / (counts[bucket] + 2.0));
+				}
+			}
+			Map<String, Double> retrieve = new HashMap<String, Double>();
+			Map<String, Double> evaluate = new HashMap<String, Double>();
+			ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
+
+			final int phaseStart = numLabeled;
+			for (int i = 0; i < batch.length; i++) {
+				final String key = Integer.toString(batchBuckets[i]);
+				final boolean isPositive = data.isPositive(batch[i]);
+				final double rand = random.nextDouble();
+				if (rand > retrieve.get(key)) {
+					if (isPositive) {
+						falseNegatives++;
+					}
+					continue;
+				}
+				retrieves++;
+				if (rand < evaluate.get(key)) {
+					evaluates++;
+					if (numLabeled == labeledRows.length) {
+						labeledRows = Arrays.copyOf(labeledRows, 2 * numLabeled + 1);
+						labels = Arrays.copyOf(labels, 2 * numLabeled + 1);
+						weights = Arrays.copyOf(weights, 2 * numLabeled + 1);
+					}
+					labeledRows[numLabeled] = batch[i];
+					labels[numLabeled] = isPositive;
+					// Probability that this tuple was labeled: it is a test row, in this batch, and was evaluated.
+					weights[numLabeled] = 1 / ((1 - split.trainFraction()) * batch.length / rows.length * evaluate.get(key));
+					numLabeled++;
+					if (isPositive) {
+						truePositives++;
+					}
+				} else if (isPositive) {
+					truePositives++;
+				} else {
+					falsePositives++;
+				}
+			}
+			if (progress != null) {
+				progress.println("phase " + phase + "\t" + batch.length + " tuples\t" + (numLabeled - phaseStart) + " evaluated");
+			}
+
+			if (refine && numLabeled > phaseStart) {
+				model = model.update(features, Arrays.copyOfRange(labeledRows, phaseStart, numLabeled),
+						Arrays.copyOfRange(labels, phaseStart, numLabeled), Arrays.copyOfRange(weights, phaseStart, numLabeled),
+						curvature);
+			}
+		}
+		final double precision = truePositives / (truePositives + falsePositives);
+		final double recall = truePositives / (truePositives + falseNegatives);
+		return new double[] {retrieves, evaluates, precision, recall};
+	}
+
+	public static void main(String[] argv) throws Exception {
+		ColumnarDataset data = DataCache.getHashedDataset(CensusDataExtractor.ARFFFILELOCATION, CensusDataExtractor.TARGET,
+				ColumnarDataset.MAXONEHOTVALUES, ColumnarDataset.DEFAULTHASHBUCKETS);
+		final boolean[] mask = data.attributeMask(ColumnarDataset.MAXONEHOTVALUES);
+		final long seed = RandomStreams.newStream().nextLong();
+		final DataSplit split = DataSplit.split(data.numRows(), 0.01, seed);
+		out.println("refine\tretrieves\tevaluates\tprecision\trecall");
+		for (final boolean refine : new boolean[] {false, true}) {
+			final double[] result = onlineRefinementQuery(data, mask, split, 10, "bucket-size", 0.8, 0.8, 0.8, 10, refine, seed, out);
+			out.println(refine + "\t" + result[0] + "\t" + result[1] + "\t" + result[2] + "\t" + result[3]);
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.util.List;
 import java.util.Map;
 
 import utils.PerformanceAnalysis;
+import utils.PlanEvaluator;
 
 import com.joptimizer.functions.ConvexMultivariateRealFunction;
 import com.joptimizer.functions.LinearMultivariateRealFunction;
@@ -18,6 +19,8 @@ import com.joptimizer.optimizers.OptimizationRequest;
 import com.joptimizer.optimizers.OptimizationResponse;
 
 public class ProbabilisticSolvers {
+	public final static int EXACTSEARCHSTEPS = 40;
+	public final static double EXACTFALLBACKMARGIN = 0.05;
 	
 	/**
 	 * sizesKnownEvaluate is like biGreedyEvaluate, except that it takes variance into account on the RHS, and thus
@@ -32,7 +35,242 @@ public class ProbabilisticSolvers {
 	 */
 	public static void sizesKnownEvaluate(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
 			Double beta, Double rho, Map<String, Double> retrieve, Map<String, Double> evaluate) {
-		// Sorting keys in decreasing order of selectivity.
+		sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, ConcentrationBound.HOEFFDING, retrieve, evaluate);
+	}
+	
+	/**
+	 * Like sizesKnownEvaluate above, with the buffers by which the constraints' right hand sides exceed their 
+	 * expectations given by bound. The variance used is the range based one, a quarter per tuple (scaled by the 
+	 * tuple's weight in the constraint), so HOEFFDING gives the buffers of sizesKnownEvaluate above. With that 
+	 * variance BERNSTEIN would just be HOEFFDING plus a range term, so BERNSTEIN and EMPIRICAL_BERNSTEIN instead use 
+	 * the variance of the plan itself (see bernsteinAssign), which is far smaller when most groups are retrieved 
+	 * (or evaluated) with probability 0 or 1.
+	 */
+	public static void sizesKnownEvaluate(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double rho, ConcentrationBound bound, Map<String, Double> retrieve, Map<String, Double> evaluate) {
+		sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, bound, "bernoulli", retrieve, evaluate);
+	}
+	
+	/**
+	 * Like sizesKnownEvaluate above, for a plan that will be executed as execution (see PerformanceAnalysis.findStats).
+	 * "bernoulli" retrieves each tuple independently, so the buffers allow a quarter variance per tuple. "quota" 
+	 * retrieves (and evaluates) exactly round(r_a t_a) (round(e_a t_a)) tuples of each group, without replacement, so
+	 * only which of its tuples are positive varies: at most 0.25 t_a s_a (1 - s_a) variance per group, in both
+	 * constraints. Groups with selectivity near 0 or 1 then need almost no buffer.
+	 */
+	public static void sizesKnownEvaluate(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double rho, ConcentrationBound bound, String execution, Map<String, Double> retrieve, 
+			Map<String, Double> evaluate) {
+		if (!execution.equals("bernoulli") && !execution.equals("quota")) {
+			throw new IllegalArgumentException("execution parameter not recognized");
+		}
+		List<String> keyList = keysBySelectivity(selectivities);
+	
+		// Computing the rhs of the recall and precision constraints.
+		Double recallRHSExpectation = 0.0;
+		Double recallRHSBuffer = 0.0; // This is how much we need to exceed the expectation to achieve the probabilistic guarantee.
+		Double precisionRHSBuffer = 0.0;
+		
+		for (String key : keyList) {
+			final Double selectivity = selectivities.get(key);
+			final Double size = sizes.get(key);
+			final Double ca = size * selectivity;
+			final Double wa = size * (1 - selectivity);
+			
+			recallRHSExpectation  += beta * ca;
+			if (execution.equals("quota")) {
+				recallRHSBuffer += ca * (1 - selectivity) / 4;
+				precisionRHSBuffer += ca * (1 - selectivity) / 4;
+			} else {
+				recallRHSBuffer += ca / 4;
+				precisionRHSBuffer += (ca * (1 - alpha) * (1 - alpha) + wa * alpha * alpha) / 4;
+			}
+		}
+		
+		recallRHSBuffer = bound.buffer(recallRHSBuffer, 1.0, rho);
+		precisionRHSBuffer = bound.buffer(precisionRHSBuffer, Math.max(alpha, 1 - alpha), rho);
+		if (bound == ConcentrationBound.BERNSTEIN || bound == ConcentrationBound.EMPIRICAL_BERNSTEIN) {
+			bernsteinAssign(keyList, sizes, selectivities, alpha, rho, bound, execution, recallRHSExpectation, 
+					recallRHSBuffer, precisionRHSBuffer, retrieve, evaluate);
+			return;
+		}
+		greedyAssign(keyList, sizes, selectivities, alpha, recallRHSExpectation + recallRHSBuffer, precisionRHSBuffer, 
+				retrieve, evaluate);
+	}
+	
+	/**
+	 * The greedy assignment with the smallest buffers that cover bound's buffer for the variance of the plan they 
+	 * give (planVariances), found by binary search like sizesKnownExactEvaluate: first the recall buffer, which decides
+	 * the retrieves, then the precision buffer. The range based buffers always cover it, so they start the search as 
+	 * the upper ends, and the search only ever returns a buffer that covers its plan. With sizes and selectivities 
+	 * known the variance is exact, not estimated, so EMPIRICAL_BERNSTEIN differs from BERNSTEIN only by its larger 
+	 * offset.
+	 */
+	private static void bernsteinAssign(List<String> keyList, Map<String, Double> sizes, Map<String, Double> selectivities, 
+			Double alpha, Double rho, ConcentrationBound bound, String execution, Double recallRHSExpectation, 
+			Double maxRecallBuffer, Double maxPrecisionBuffer, Map<String, Double> retrieve, Map<String, Double> evaluate) {
+		double low = 0.0;
+		double high = maxRecallBuffer;
+		for (int i = 0; i < EXACTSEARCHSTEPS; i++) {
+			final double mid = (low + high) / 2;
+			greedyAssign(keyList, sizes, selectivities, alpha, recallRHSExpectation + mid, 0.0, retrieve, evaluate);
+			final double variance = planVariances(sizes, selectivities, alpha, execution, retrieve, evaluate)[1];
+			if (bound.buffer(variance, 1.0, rho) <= mid) {
+				high = mid;
+			} else {
+				low = mid;
+			}
+		}
+		final double recallRHS = recallRHSExpectation + high;
+		low = 0.0;
+		high = maxPrecisionBuffer;
+		for (int i = 0; i < EXACTSEARCHSTEPS; i++) {
+			final double mid = (low + high) / 2;
+			greedyAssign(keyList, sizes, selectivities, alpha, recallRHS, mid, retrieve, evaluate);
+			final double variance = planVariances(sizes, selectivities, alpha, execution, retrieve, evaluate)[0];
+			if (bound.buffer(variance, Math.max(alpha, 1 - alpha), rho) <= mid) {
+				high = mid;
+			} else {
+				low = mid;
+			}
+		}
+		greedyAssign(keyList, sizes, selectivities, alpha, recallRHS, high, retrieve, evaluate);
+	}
+	
+	/**
+	 * {variance of the precision constraint's left hand side, variance of the number of retrieved positives} when the
+	 * plan is executed as execution, with sizes and selectivities known. "bernoulli": a positive tuple counts 1 - alpha
+	 * (precision) and 1 (recall) with probability r, and a negative one -alpha with probability r - e. "quota": the 
+	 * evaluated and the other retrieved tuples of a group are disjoint random subsets of e t and (r - e) t of its t 
+	 * tuples, so their positive counts are (negatively correlated) hypergeometrics, each with variance about 
+	 * t s (1 - s) f (1 - f) for a subset of a fraction f of the group.
+	 */
+	private static double[] planVariances(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			String execution, Map<String, Double> retrieve, Map<String, Double> evaluate) {
+		double precisionVariance = 0.0;
+		double recallVariance = 0.0;
+		for (String key : sizes.keySet()) {
+			final double t = sizes.get(key);
+			final double s = selectivities.get(key);
+			final double r = retrieve.get(key);
+			final double e = evaluate.get(key);
+			if (execution.equals("quota")) {
+				// Left hand side (1 - alpha) P_e + P_(r-e) + constant, with P_x the positives of the subsets above.
+				final double q = t * s * (1 - s);
+				recallVariance += q * r * (1 - r);
+				precisionVariance += q * ((1 - alpha) * (1 - alpha) * e * (1 - e) + (r - e) * (1 - (r - e)) 
+						- 2 * (1 - alpha) * e * (r - e));
+			} else {
+				recallVariance += t * s * r * (1 - r);
+				precisionVariance += t * s * (1 - alpha) * (1 - alpha) * r * (1 - r) + t * (1 - s) * alpha * alpha * (r - e) * (1 - (r - e));
+			}
+		}
+		return new double[] {Math.max(precisionVariance, 0.0), recallVariance};
+	}
+
+	
+	/**
+	 * Like sizesKnownEvaluate, but with the smallest buffers for which the plan meets the constraints with probability
+	 * rho, instead of buffers from a worst case bound. With sizes and selectivities known, the numbers of true and false
+	 * positives under a plan are Poisson-binomials, so the probabilities are computed (by PlanEvaluator) rather than
+	 * bounded: the recall buffer, which decides the retrieves, and then the precision buffer, which decides the 
+	 * evaluates, are each found by binary search. The search uses the normal approximation, and the exact 
+	 * distribution when the approximation is within EXACTFALLBACKMARGIN of rho. For small or skewed groups the 
+	 * approximation can still be off by more than that, so the plan each search ends on is checked with the exact 
+	 * distribution, and if it misses rho the buffer is searched again, between it and the largest buffer, with exact 
+	 * probabilities only. The returned plan therefore meets rho exactly. Groups have round(size * selectivity) 
+	 * positive tuples.
+	 */
+	public static void sizesKnownExactEvaluate(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double rho, Map<String, Double> retrieve, Map<String, Double> evaluate) {
+		List<String> keyList = keysBySelectivity(selectivities);
+		Map<String, Integer> positive = new HashMap<String, Integer>();
+		Map<String, Integer> negative = new HashMap<String, Integer>();
+		Double recallRHSExpectation = 0.0;
+		Double maxRecallBuffer = 1.0;
+		Double maxPrecisionBuffer = 1.0;
+		for (String key : keyList) {
+			final Double ca = sizes.get(key) * selectivities.get(key);
+			positive.put(key, (int) Math.round(ca));
+			negative.put(key, (int) Math.round(sizes.get(key) - ca));
+			recallRHSExpectation += beta * ca;
+			maxRecallBuffer += (1 - beta) * ca; // Retrieves everything.
+			maxPrecisionBuffer += alpha * (sizes.get(key) - ca); // Evaluates everything retrieved.
+		}
+		final Map<String, Integer> noSamples = new HashMap<String, Integer>();
+
+		// Recall: the smallest buffer whose retrieves meet beta with probability rho. Evaluates don't affect recall.
+		double recallBuffer = smallestBuffer(keyList, sizes, selectivities, alpha, beta, rho, recallRHSExpectation, null, 
+				0.0, maxRecallBuffer, positive, negative, noSamples, false, retrieve, evaluate);
+		greedyAssign(keyList, sizes, selectivities, alpha, recallRHSExpectation + recallBuffer, 0.0, retrieve, evaluate);
+		if (planProbabilities(sizes, retrieve, evaluate, positive, negative, noSamples, alpha, beta, rho, true)[1] < rho) {
+			recallBuffer = smallestBuffer(keyList, sizes, selectivities, alpha, beta, rho, recallRHSExpectation, null, 
+					recallBuffer, maxRecallBuffer, positive, negative, noSamples, true, retrieve, evaluate);
+		}
+		final double recallRHS = recallRHSExpectation + recallBuffer;
+
+		// Precision: the smallest buffer, given those retrieves, whose evaluates meet alpha with probability rho.
+		double precisionBuffer = smallestBuffer(keyList, sizes, selectivities, alpha, beta, rho, recallRHSExpectation, 
+				recallRHS, 0.0, maxPrecisionBuffer, positive, negative, noSamples, false, retrieve, evaluate);
+		greedyAssign(keyList, sizes, selectivities, alpha, recallRHS, precisionBuffer, retrieve, evaluate);
+		if (planProbabilities(sizes, retrieve, evaluate, positive, negative, noSamples, alpha, beta, rho, true)[0] < rho) {
+			precisionBuffer = smallestBuffer(keyList, sizes, selectivities, alpha, beta, rho, recallRHSExpectation, 
+					recallRHS, precisionBuffer, maxPrecisionBuffer, positive, negative, noSamples, true, retrieve, evaluate);
+		}
+		greedyAssign(keyList, sizes, selectivities, alpha, recallRHS, precisionBuffer, retrieve, evaluate);
+	}
+	
+	/**
+	 * Binary search of sizesKnownExactEvaluate for the smallest buffer in [low, high] whose greedy plan meets the 
+	 * constraint with probability rho, assuming high does: the recall buffer if recallRHS is null, else the precision
+	 * buffer for retrieves set by recallRHS. Probabilities are exact if exact, else as in planProbabilities.
+	 */
+	private static double smallestBuffer(List<String> keyList, Map<String, Double> sizes, Map<String, Double> selectivities, 
+			Double alpha, Double beta, Double rho, Double recallRHSExpectation, Double recallRHS, double low, double high, 
+			Map<String, Integer> positive, Map<String, Integer> negative, Map<String, Integer> noSamples, boolean exact, 
+			Map<String, Double> retrieve, Map<String, Double> evaluate) {
+		for (int i = 0; i < EXACTSEARCHSTEPS; i++) {
+			final double mid = (low + high) / 2;
+			if (recallRHS == null) {
+				greedyAssign(keyList, sizes, selectivities, alpha, recallRHSExpectation + mid, 0.0, retrieve, evaluate);
+			} else {
+				greedyAssign(keyList, sizes, selectivities, alpha, recallRHS, mid, retrieve, evaluate);
+			}
+			final double[] probabilities = planProbabilities(sizes, retrieve, evaluate, positive, negative, noSamples, 
+					alpha, beta, rho, exact);
+			if (probabilities[recallRHS == null ? 1 : 0] >= rho) {
+				high = mid;
+			} else {
+				low = mid;
+			}
+		}
+		return high;
+	}
+	
+	/**
+	 * {P(precision >= alpha), P(recall >= beta)} of a plan, exactly if exact or if the normal approximation of either
+	 * is within EXACTFALLBACKMARGIN of rho, else by the normal approximation.
+	 */
+	private static double[] planProbabilities(Map<String, Double> sizes, Map<String, Double> retrieve, Map<String, Double> evaluate, 
+			Map<String, Integer> positive, Map<String, Integer> negative, Map<String, Integer> noSamples, Double alpha, 
+			Double beta, Double rho, boolean exact) {
+		Map<String, Double> probabilities = null;
+		if (!exact) {
+			probabilities = PlanEvaluator.precisionRecallProbabilities(sizes, retrieve, evaluate, positive, negative, 
+					noSamples, noSamples, alpha, beta, "normal");
+		}
+		if (exact || Math.abs(probabilities.get("precision") - rho) < EXACTFALLBACKMARGIN 
+				|| Math.abs(probabilities.get("recall") - rho) < EXACTFALLBACKMARGIN) {
+			probabilities = PlanEvaluator.precisionRecallProbabilities(sizes, retrieve, evaluate, positive, negative, 
+					noSamples, noSamples, alpha, beta, "exact");
+		}
+		return new double[] {probabilities.get("precision"), probabilities.get("recall")};
+	}
+	
+	/**
+	 * Keys in decreasing order of selectivity.
+	 */
+	private static List<String> keysBySelectivity(Map<String, Double> selectivities) {
 		List<String> keyList = new ArrayList<String>(selectivities.keySet());
 		final Map<String, Double> fSelectivities = selectivities;
 		Collections.sort(keyList, new Comparator<String>(){
@@ -49,32 +287,16 @@ public class ProbabilisticSolvers {
 				}
 			}
 		});
+		return keyList;
+	}
 	
-		// Computing the rhs of the recall and precision constraints.
-		Double recallRHSExpectation = 0.0;
-		Double recallRHSBuffer = 0.0; // This is how much we need to exceed the expectation to achieve the probabilistic guarantee.
-		Double precisionRHSBuffer = 0.0;
-		
-		for (String key : keyList) {
-			final Double selectivity = selectivities.get(key);
-			final Double size = sizes.get(key);
-			final Double ca = size * selectivity;
-			final Double wa = size * (1 - selectivity);
-			
-			recallRHSExpectation  += beta * ca;
-			recallRHSBuffer += ca / 2;
-			
-			precisionRHSBuffer += (ca * (1 - alpha) * (1 - alpha) + wa * alpha * alpha) / 2;
-		}
-		
-		recallRHSBuffer *= -Math.log(1 - rho);
-		recallRHSBuffer = Math.sqrt(recallRHSBuffer);
-		Double recallRHS = recallRHSExpectation + recallRHSBuffer;
-		
-		precisionRHSBuffer *= -Math.log(1 - rho);
-		precisionRHSBuffer = Math.sqrt(precisionRHSBuffer);
-		Double precisionRHS = 0.0 + precisionRHSBuffer;
-
+	/**
+	 * The greedy assignment of sizesKnownEvaluate: retrieves in decreasing selectivity order until the expected 
+	 * number of retrieved positives reaches recallRHS, then evaluates in increasing selectivity order until the 
+	 * expected precision surplus reaches precisionRHS.
+	 */
+	private static void greedyAssign(List<String> keyList, Map<String, Double> sizes, Map<String, Double> selectivities, 
+			Double alpha, Double recallRHS, Double precisionRHS, Map<String, Double> retrieve, Map<String, Double> evaluate) {
 		// Greedily assigning retrieves, while evaluating precision constraint rhs.
 		for (String key : keyList) {
 			final Double selectivity = selectivities.get(key);
@@ -96,6 +318,7 @@ public class ProbabilisticSolvers {
 		}
 		
 		// Greedily assigning evaluates, in increasing selectivity order.
+		keyList = new ArrayList<String>(keyList);
 		Collections.reverse(keyList);
 		for (String key : keyList) {
 			final Double selectivity = selectivities.get(key);
@@ -119,94 +342,113 @@ public class ProbabilisticSolvers {
 		}
 	}
 	
+	/**
+	 * Planner cost of sizesKnownEvaluate on the given groups: retrieveCost per retrieved tuple plus evaluateCost per
+	 * evaluated tuple.
+	 */
+	public static Double sizesKnownCost(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double rho, Double retrieveCost, Double evaluateCost) {
+		Map<String, Double> retrieve = new HashMap<String, Double>();
+		Map<String, Double> evaluate = new HashMap<String, Double>();
+		sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
+		return retrieveCost * PerformanceAnalysis.retrieveCost(sizes, retrieve) + 
+				evaluateCost * PerformanceAnalysis.evaluateCost(sizes, evaluate);
+	}
+	
 	/*
-	 * The input variables to the function are R_a's, then E_a's and then F_a's. The F_a's are to be interpreted
-	 * as tuples to be sampled in addition to ones already sampled (Fc[a], Fw[a]). Thus t_a has the already-sampled
-	 * tuples pre-subtracted from it, but we still have to subtract F_a from it in the equations.
-	 * To convexify the function, (R_a-E_a\alpha)^2 is replaced by 1. 
-	 * Function is: 
-	 * c_{\rho} \sqrt{\sum_{a\in A} t_a^2 \frac{s_a(1-s_a)}{Fc_a+Fw_a+F_a+3} + 0.25t_a}
-	 * - \sum_{a \in A} (1-\alpha)(t_a-F_a)R_as_a + (1-\alpha)(Fc_a+F_as_a) - (t_a-F_a)\alpha(R_a-E_a)(1-s_a)
-	 
-	private static class GeneralPrecisionConstraintFunction implements ConvexMultivariateRealFunction {
+	 * Constraints of the joint sampling and execution problem of jointSamplingEvaluate. The input variables are R_a's,
+	 * then E_a's and then F_a's, all as fractions of t_a: F_a t_a tuples of group a are sampled (retrieved and 
+	 * evaluated) in addition to the ones already sampled (Fc[a], Fw[a]), and R_a t_a (E_a t_a) of the remaining 
+	 * tuples are retrieved (evaluated). t_a has the already-sampled tuples pre-subtracted from it. Taking the counts 
+	 * rather than the probabilities (t_a - F_a t_a) R_a / t_a etc. as variables keeps the expectations linear.
+	 * The coefficient of s_a in either constraint is at most t_a in absolute value, so the selectivity error is 
+	 * bounded by t_a^2 v_a, which with v_a = s_a(1-s_a)/(Fc_a+Fw_a+F_at_a+3) is convex in F_a. The square root of a 
+	 * sum of nonnegative convex terms is convex, so the function is too:
+	 * c_{\rho} \sqrt{\sum_{a\in A} \frac{t_a^2 s_a(1-s_a)}{Fc_a+Fw_a+F_at_a+3} + 0.25t_a} + offset - linear(R, E, F)
+	 * where linear is the expectation of the constraint's left hand side, given by the subclasses.
+	 */
+	private static abstract class GeneralConstraintFunction implements ConvexMultivariateRealFunction {
 
 		int numGroups;
-		double alpha;
 		double c_rho;
+		double offset = 0.0;
+		double[] executionVariance; // Variance added by executing the plan, per group.
 		double[] t;
 		double[] s;
-		double[] v;
+		double[] k; // t_a^2 s_a (1 - s_a).
 		int[] Fc;
 		int[] Fw;
+		double constant;
+		double[] coefficients; // Coefficients of linear, in the order of the variables.
 		
-		@SuppressWarnings("unused")
-		private GeneralPrecisionConstraintFunction () {
-			// Empty constructor to prevent instantiation.
-		}
-		
-		public GeneralPrecisionConstraintFunction (double alpha, double rho, Map<String, Double> sizes, Map<String, Double> selectivities, 
-				Map<String, Double> variances, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
+		GeneralConstraintFunction (double rho, ConcentrationBound bound, double maxRange, Map<String, Double> sizes, 
+				Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
 			numGroups = sizes.size();
-			this.alpha = alpha;
-			this.c_rho = Math.sqrt(1/(1 - rho)); //Math.log(1/(1-rho)/2); //works wayyy better, almost exact if not for the loosening under square root.
+			c_rho = bound.multiplier(rho);
+			offset = bound.offset(rho, maxRange);
 			t = new double[numGroups];
 			s = new double[numGroups];
-			v = new double[numGroups];
+			k = new double[numGroups];
 			Fc = new int[numGroups];
 			Fw = new int[numGroups];
+			executionVariance = new double[numGroups];
+			coefficients = new double[3 * numGroups];
 			int a = 0;
 			for (String key : sizes.keySet()) {
 				t[a] = sizes.get(key);
-				if (positiveSamples != null) {
-					Fc[a] = positiveSamples.get(key);
-					Fw[a] = negativeSamples.get(key);
-				} else {
-					Fc[a] = 0;
-					Fw[a] = 0;	
-				}
-				if (selectivities == null) {
-					s[a] = (Fc[a] + 1.0) / (Fc[a] + Fw[a] + 3);
-				} else {
-					s[a] = selectivities.get(key);
-				}
-				if (variances == null) {
-					v[a] = s[a] * (1-s[a]) / (Fc[a] + Fw[a] + 3);
-				} else {
-					v[a] = variances.get(key);
-				}
+				Fc[a] = positiveSamples.get(key);
+				Fw[a] = negativeSamples.get(key);
+				s[a] = (Fc[a] + 1.0) / (Fc[a] + Fw[a] + 2);
+				k[a] = t[a] * t[a] * s[a] * (1 - s[a]);
+				executionVariance[a] = 0.25 * t[a];
 				a++;
 			}
 		}
 		
-		@Override
-		public double value(double[] X) {
-			Double value = 0.0;
+		/*
+		 * Sets how the plan will be executed, as in PrecisionConstraintFunction. The execution variance is that of
+		 * executing the plan on all t_a tuples, which bounds that of the t_a - F_a t_a unsampled ones.
+		 */
+		public void setExecution (String execution) {
+			if (!execution.equals("bernoulli") && !execution.equals("quota")) {
+				throw new IllegalArgumentException("execution parameter not recognized");
+			}
 			for (int a = 0; a < numGroups; a++) {
-				value += t[a] * t[a] * s[a] * (1-s[a]) / (Fc[a] + Fw[a] + X[a + 2 * numGroups]);
-				value += 0.25 * t[a];
+				executionVariance[a] = 0.25 * t[a] * (execution.equals("quota") ? s[a] * (1 - s[a]) : 1.0);
 			}
-			value = c_rho * Math.sqrt(value);
+		}
+		
+		private double denominator (double[] X, int a) {
+			return Fc[a] + Fw[a] + X[a + 2 * numGroups] * t[a] + 3;
+		}
+		
+		private double variance (double[] X) {
+			double var = 0.0;
 			for (int a = 0; a < numGroups; a++) {
-				value -= (1 - alpha) * (Fc[a] + X[a + 2 * numGroups] * s[a]) + (1 - alpha) * (t[a] - X[a + 2 * numGroups]) * X[a] * s[a] - (t[a] - X[a + 2 * numGroups]) * alpha * (X[a] - X[a + numGroups]) * (1 - s[a]);
+				var += k[a] / denominator(X, a) + executionVariance[a];
+			}
+			return var;
+		}
+		
+		@Override
+		public double value(double[] X) {
+			double value = c_rho * Math.sqrt(variance(X)) + offset - constant;
+			for (int i = 0; i < 3 * numGroups; i++) {
+				value -= coefficients[i] * X[i];
 			}
 			return value;
 		}
 
 		@Override
 		public double[] gradient(double[] X) {
-			double[] grad = new double[2 * numGroups];
-			double var = 0.0;
-			for (int a = 0; a < numGroups; a++) {
-				var += t[a] * t[a] * s[a] * (1-s[a]) / (Fc[a] + Fw[a] + X[a + 2 * numGroups]);
-				var += 0.25 * t[a];
+			double[] grad = new double[3 * numGroups];
+			final double sd = Math.sqrt(variance(X));
+			for (int i = 0; i < 3 * numGroups; i++) {
+				grad[i] = -coefficients[i];
 			}
-			var = Math.sqrt(var);
 			for (int a = 0; a < numGroups; a++) {
-				grad[a] = -t[a] * (s[a] - alpha);
-				grad[a + numGroups] = -t[a] * alpha * (1 - s[a]);
-				grad[a + 2 * numGroups] = -c_rho * t[a] * t[a] * s[a] * (1-s[a]) / ((Fc[a] + Fw[a] + X[a + 2 * numGroups]) *
-						(Fc[a] + Fw[a] + X[a + 2 * numGroups]) * 2 * var);
-				grad[a + 2 * numGroups] -= s[a] * (1 - alpha);
+				final double d = denominator(X, a);
+				grad[a + 2 * numGroups] -= c_rho * k[a] * t[a] / (d * d) / (2 * sd);
 			}
 			return grad;
 		}
@@ -214,21 +456,19 @@ public class ProbabilisticSolvers {
 		@Override
 		public double[][] hessian(double[] X) {
 			double[][] hess = new double[3 * numGroups][3 * numGroups];
-			double var = 0.0;
+			final double var = variance(X);
+			final double sd = Math.sqrt(var);
+			double[] varGradient = new double[numGroups];
 			for (int a = 0; a < numGroups; a++) {
-				var += t[a] * t[a] * s[a] * (1-s[a]) / (Fc[a] + Fw[a] + X[a + 2 * numGroups]);
-				var += 0.25 * t[a];
+				final double d = denominator(X, a);
+				varGradient[a] = -k[a] * t[a] / (d * d);
 			}
-			var = Math.sqrt(var);
 			for (int a1 = 0; a1 < numGroups; a1++) {
-				hess[a1 + 2 * numGroups][a1 + 2 * numGroups] = c_rho * t[a1] * t[a1] * s[a1] * (1-s[a1]) / ((Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) *
-						(Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) * (Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) * var);
+				final double d = denominator(X, a1);
+				hess[a1 + 2 * numGroups][a1 + 2 * numGroups] = c_rho * k[a1] * t[a1] * t[a1] / (d * d * d) / sd;
 				for (int a2 = 0; a2 < numGroups; a2++) {
-					hess[a1 + 2 * numGroups][a2 + 2 * numGroups] -= c_rho 
-							* (t[a1] * t[a1] * s[a1] * (1-s[a1]) / ((Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) * (Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]))) 
-							* (t[a2] * t[a2] * s[a2] * (1-s[a2]) / ((Fc[a2] + Fw[a2] + X[a2 + 2 * numGroups]) * (Fc[a2] + Fw[a2] + X[a2 + 2 * numGroups]))) 
-							/ (4 * var * var * var);
-				}	
+					hess[a1 + 2 * numGroups][a2 + 2 * numGroups] -= c_rho * varGradient[a1] * varGradient[a2] / (4 * var * sd);
+				}
 			}
 			return hess;
 		}
@@ -238,128 +478,42 @@ public class ProbabilisticSolvers {
 			return 3 * numGroups;
 		}
 	}
-	*/
 	
 	/*
-	 * The input variables to the function are R_a's, then E_a's and then F_a's. The F_a's are to be interpreted
-	 * as tuples to be sampled in addition to ones already sampled (Fc[a], Fw[a]). Thus t_a has the already-sampled
-	 * tuples pre-subtracted from it, but we still have to subtract F_a from it in the equations.
-	 * To convexify the function, (R_a-\beta)^2 is replaced by 1. 
-	 * Function is: 
-	 * c_{\rho} \sqrt{\sum_{a\in A} t_a^2 \frac{s_a(1-s_a)}{Fc_a+Fw_a+F_a+3} + 0.25t_a}
-	 * - \sum_{a \in A} Fc_a + (t_a - F_a) R_as_a + F_as_a - t_a s_a\beta - Fc_a\beta
-	 
-	private static class GeneralRecallConstraintFunction implements ConvexMultivariateRealFunction {
-
-		int numGroups;
-		double alpha;
-		double c_rho;
-		double[] t;
-		double[] s;
-		double[] v;
-		int[] Fc;
-		int[] Fw;
-		
-		@SuppressWarnings("unused")
-		private GeneralRecallConstraintFunction () {
-			// Empty constructor to prevent instantiation.
-		}
-		
-		public GeneralRecallConstraintFunction (double alpha, double rho, Map<String, Double> sizes, Map<String, Double> selectivities, 
-				Map<String, Double> variances, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
-			numGroups = sizes.size();
-			this.alpha = alpha;
-			this.c_rho = Math.sqrt(1/(1 - rho)); //Math.log(1/(1-rho)/2); //works wayyy better, almost exact if not for the loosening under square root.
-			t = new double[numGroups];
-			s = new double[numGroups];
-			v = new double[numGroups];
-			Fc = new int[numGroups];
-			Fw = new int[numGroups];
-			int a = 0;
-			for (String key : sizes.keySet()) {
-				t[a] = sizes.get(key);
-				if (positiveSamples != null) {
-					Fc[a] = positiveSamples.get(key);
-					Fw[a] = negativeSamples.get(key);
-				} else {
-					Fc[a] = 0;
-					Fw[a] = 0;	
-				}
-				if (selectivities == null) {
-					s[a] = (Fc[a] + 1.0) / (Fc[a] + Fw[a] + 3);
-				} else {
-					s[a] = selectivities.get(key);
-				}
-				if (variances == null) {
-					v[a] = s[a] * (1-s[a]) / (Fc[a] + Fw[a] + 3);
-				} else {
-					v[a] = variances.get(key);
-				}
-				a++;
-			}
-		}
-		
-		@Override
-		public double value(double[] X) {
-			Double value = 0.0;
-			for (int a = 0; a < numGroups; a++) {
-				value += t[a] * t[a] * s[a] * (1-s[a]) / (Fc[a] + Fw[a] + X[a + 2 * numGroups]);
-				value += 0.25 * t[a];
-			}
-			value = c_rho * Math.sqrt(value);
-			for (int a = 0; a < numGroups; a++) {
-				value -= (1 - alpha) * (Fc[a] + X[a + 2 * numGroups] * s[a]) + (1 - alpha) * t[a] * X[a] * s[a] - t[a] * alpha * (X[a] - X[a + numGroups]) * (1 - s[a]);
-			}
-			return value;
-		}
+	 * Precision constraint of jointSamplingEvaluate. The expectation of its left hand side is 
+	 * \sum_{a \in A} (1-\alpha)(Fc_a + t_as_a(R_a + F_a)) - \alpha t_a(R_a-E_a)(1-s_a)
+	 * Sampled tuples are evaluated, so they are never false positives.
+	 */
+	private static class GeneralPrecisionConstraintFunction extends GeneralConstraintFunction {
 
-		@Override
-		public double[] gradient(double[] X) {
-			double[] grad = new double[2 * numGroups];
-			double var = 0.0;
-			for (int a = 0; a < numGroups; a++) {
-				var += t[a] * t[a] * s[a] * (1-s[a]) / (Fc[a] + Fw[a] + X[a + 2 * numGroups]);
-				var += 0.25 * t[a];
-			}
-			var = Math.sqrt(var);
+		public GeneralPrecisionConstraintFunction (double alpha, double rho, ConcentrationBound bound, Map<String, Double> sizes, 
+				Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
+			super(rho, bound, Math.max(alpha, 1 - alpha), sizes, positiveSamples, negativeSamples);
 			for (int a = 0; a < numGroups; a++) {
-				grad[a] = -t[a] * (s[a] - alpha);
-				grad[a + numGroups] = -t[a] * alpha * (1 - s[a]);
-				grad[a + 2 * numGroups] = -c_rho * t[a] * t[a] * s[a] * (1-s[a]) / ((Fc[a] + Fw[a] + X[a + 2 * numGroups]) *
-						(Fc[a] + Fw[a] + X[a + 2 * numGroups]) * 2 * var);
-				grad[a + 2 * numGroups] -= s[a] * (1 - alpha);
+				constant += (1 - alpha) * Fc[a];
+				coefficients[a] = t[a] * (s[a] - alpha);
+				coefficients[a + numGroups] = t[a] * alpha * (1 - s[a]);
+				coefficients[a + 2 * numGroups] = t[a] * (1 - alpha) * s[a];
 			}
-			return grad;
 		}
+	}
+	
+	/*
+	 * Recall constraint of jointSamplingEvaluate. The expectation of its left hand side is 
+	 * \sum_{a \in A} Fc_a + t_as_a(R_a + F_a) - t_as_a\beta - Fc_a\beta
+	 */
+	private static class GeneralRecallConstraintFunction extends GeneralConstraintFunction {
 
-		@Override
-		public double[][] hessian(double[] X) {
-			double[][] hess = new double[3 * numGroups][3 * numGroups];
-			double var = 0.0;
+		public GeneralRecallConstraintFunction (double beta, double rho, ConcentrationBound bound, Map<String, Double> sizes, 
+				Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
+			super(rho, bound, 1.0, sizes, positiveSamples, negativeSamples);
 			for (int a = 0; a < numGroups; a++) {
-				var += t[a] * t[a] * s[a] * (1-s[a]) / (Fc[a] + Fw[a] + X[a + 2 * numGroups]);
-				var += 0.25 * t[a];
+				constant += (1 - beta) * Fc[a] - beta * t[a] * s[a];
+				coefficients[a] = t[a] * s[a];
+				coefficients[a + 2 * numGroups] = t[a] * s[a];
 			}
-			var = Math.sqrt(var);
-			for (int a1 = 0; a1 < numGroups; a1++) {
-				hess[a1 + 2 * numGroups][a1 + 2 * numGroups] = c_rho * t[a1] * t[a1] * s[a1] * (1-s[a1]) / ((Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) *
-						(Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) * (Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) * var);
-				for (int a2 = 0; a2 < numGroups; a2++) {
-					hess[a1 + 2 * numGroups][a2 + 2 * numGroups] -= c_rho 
-							* (t[a1] * t[a1] * s[a1] * (1-s[a1]) / ((Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]) * (Fc[a1] + Fw[a1] + X[a1 + 2 * numGroups]))) 
-							* (t[a2] * t[a2] * s[a2] * (1-s[a2]) / ((Fc[a2] + Fw[a2] + X[a2 + 2 * numGroups]) * (Fc[a2] + Fw[a2] + X[a2 + 2 * numGroups]))) 
-							/ (4 * var * var * var);
-				}	
-			}
-			return hess;
-		}
-
-		@Override
-		public int getDim() {
-			return 3 * numGroups;
 		}
 	}
-	*/
 	
 	/*
 	 * The input variables to the function are R_a's and then E_a's. 
@@ -372,6 +526,8 @@ public class ProbabilisticSolvers {
 		int numGroups;
 		double alpha;
 		double c_rho;
+		double offset = 0.0;
+		double[] executionVariance; // Variance added by executing the plan, per group.
 		double[] t;
 		double[] s;
 		double[] v;
@@ -420,6 +576,34 @@ public class ProbabilisticSolvers {
 				}
 				a++;
 			}
+			executionVariance = new double[numGroups];
+			for (a = 0; a < numGroups; a++) {
+				executionVariance[a] = 0.25 * t[a];
+			}
+		}
+		
+		/*
+		 * Like the constructor above, with the buffer c_rho * sqrt(variance) + offset given by bound.
+		 */
+		public PrecisionConstraintFunction (double alpha, double rho, ConcentrationBound bound, Map<String, Double> sizes, 
+				Map<String, Double> selectivities, Map<String, Double> variances, Map<String, Integer> positiveSamples, 
+				Map<String, Integer> negativeSamples) {
+			this(alpha, rho, sizes, selectivities, variances, positiveSamples, negativeSamples);
+			this.c_rho = bound.multiplier(rho);
+			this.offset = bound.offset(rho, Math.max(alpha, 1 - alpha));
+		}
+		
+		/*
+		 * Sets how the plan will be executed (see PerformanceAnalysis.findStats). "bernoulli" is the default. With 
+		 * "quota", a group of t_a tuples adds at most 0.25 t_a s_a (1 - s_a) variance, instead of 0.25 t_a.
+		 */
+		public void setExecution (String execution) {
+			if (!execution.equals("bernoulli") && !execution.equals("quota")) {
+				throw new IllegalArgumentException("execution parameter not recognized");
+			}
+			for (int a = 0; a < numGroups; a++) {
+				executionVariance[a] = 0.25 * t[a] * (execution.equals("quota") ? s[a] * (1 - s[a]) : 1.0);
+			}
 		}
 		
 		@Override
@@ -427,9 +611,9 @@ public class ProbabilisticSolvers {
 			Double value = 0.0;
 			for (int a = 0; a < numGroups; a++) {
 				value += t[a] * t[a] * v[a] * (X[a] - alpha * X[a + numGroups]) * (X[a] - alpha * X[a + numGroups]);
-				value += 0.25 * t[a];
+				value += executionVariance[a];
 			}
-			value = c_rho * Math.sqrt(value);
+			value = c_rho * Math.sqrt(value) + offset;
 			for (int a = 0; a < numGroups; a++) {
 				value -= (1 - alpha) * Fc[a] + (1 - alpha) * t[a] * X[a] * s[a] - t[a] * alpha * (X[a] - X[a + numGroups]) * (1 - s[a]);
 			}
@@ -442,7 +626,7 @@ public class ProbabilisticSolvers {
 			double var = 0.0;
 			for (int a = 0; a < numGroups; a++) {
 				var += t[a] * t[a] * v[a] * (X[a] - alpha * X[a + numGroups]) * (X[a] - alpha * X[a + numGroups]);
-				var += 0.25 * t[a];
+				var += executionVariance[a];
 			}
 			var = Math.sqrt(var);
 			for (int a = 0; a < numGroups; a++) {
@@ -460,7 +644,7 @@ public class ProbabilisticSolvers {
 			double var = 0.0;
 			for (int a = 0; a < numGroups; a++) {
 				var += t[a] * t[a] * v[a] * (X[a] - alpha * X[a + numGroups]) * (X[a] - alpha * X[a + numGroups]);
-				var += 0.25 * t[a];
+				var += executionVariance[a];
 			}
 			var = Math.sqrt(var);
 			for (int a1 = 0; a1 < numGroups; a1++) {
@@ -499,6 +683,8 @@ public class ProbabilisticSolvers {
 		int numGroups;
 		double beta;
 		double c_rho;
+		double offset = 0.0;
+		double[] executionVariance; // Variance added by executing the plan, per group.
 		double[] t;
 		double[] s;
 		double[] v;
@@ -547,6 +733,34 @@ public class ProbabilisticSolvers {
 				}
 				a++;
 			}
+			executionVariance = new double[numGroups];
+			for (a = 0; a < numGroups; a++) {
+				executionVariance[a] = 0.25 * t[a];
+			}
+		}
+		
+		/*
+		 * Like the constructor above, with the buffer c_rho * sqrt(variance) + offset given by bound.
+		 */
+		public RecallConstraintFunction (double beta, double rho, ConcentrationBound bound, Map<String, Double> sizes, 
+				Map<String, Double> selectivities, Map<String, Double> variances, Map<String, Integer> positiveSamples, 
+				Map<String, Integer> negativeSamples) {
+			this(beta, rho, sizes, selectivities, variances, positiveSamples, negativeSamples);
+			this.c_rho = bound.multiplier(rho);
+			this.offset = bound.offset(rho, 1.0);
+		}
+		
+		/*
+		 * Sets how the plan will be executed (see PerformanceAnalysis.findStats). "bernoulli" is the default. With 
+		 * "quota", a group of t_a tuples adds at most 0.25 t_a s_a (1 - s_a) variance, instead of 0.25 t_a.
+		 */
+		public void setExecution (String execution) {
+			if (!execution.equals("bernoulli") && !execution.equals("quota")) {
+				throw new IllegalArgumentException("execution parameter not recognized");
+			}
+			for (int a = 0; a < numGroups; a++) {
+				executionVariance[a] = 0.25 * t[a] * (execution.equals("quota") ? s[a] * (1 - s[a]) : 1.0);
+			}
 		}
 		
 		@Override
@@ -554,9 +768,9 @@ public class ProbabilisticSolvers {
 			Double value = 0.0;
 			for (int a = 0; a < numGroups; a++) {
 				value += t[a] * t[a] * v[a] * (X[a] - beta) * (X[a] - beta);
-				value += 0.25 * t[a];
+				value += executionVariance[a];
 			}
-			value = c_rho * Math.sqrt(value);
+			value = c_rho * Math.sqrt(value) + offset;
 			for (int a = 0; a < numGroups; a++) {
 				value -= Fc[a] * (1 - beta) + t[a] * X[a] * s[a] - t[a] * beta * s[a];
 			}
@@ -569,7 +783,7 @@ public class ProbabilisticSolvers {
 			double var = 0.0;
 			for (int a = 0; a < numGroups; a++) {
 				var += t[a] * t[a] * v[a] * (X[a] - beta) * (X[a] - beta);
-				var += 0.25 * t[a];
+				var += executionVariance[a];
 			}
 			var = Math.sqrt(var);
 			for (int a = 0; a < numGroups; a++) {
@@ -585,7 +799,7 @@ public class ProbabilisticSolvers {
 			double var = 0.0;
 			for (int a = 0; a < numGroups; a++) {
 				var += t[a] * t[a] * v[a] * (X[a] - beta) * (X[a] - beta);
-				var += 0.25 * t[a];
+				var += executionVariance[a];
 			}
 			var = Math.sqrt(var);
 			for (int a1 = 0; a1 < numGroups; a1++) {
@@ -622,6 +836,31 @@ public class ProbabilisticSolvers {
 	public static void errorsInSizesEvaluate(Map<String, Double> sizes, Map<String, Double> selectivities,  Map<String, Double> variances, 
 			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, Double alpha, Double beta, Double rho, 
 			Double retrieveCost, Double evaluateCost, Map<String, Double> retrieve, Map<String, Double> evaluate) throws Exception {
+		errorsInSizesEvaluate(sizes, selectivities, variances, positiveSamples, negativeSamples, alpha, beta, rho, null, 
+				retrieveCost, evaluateCost, retrieve, evaluate);
+	}
+	
+	/**
+	 * Like errorsInSizesEvaluate above, with the precision and recall constraint buffers given by bound. null keeps
+	 * the factors of errorsInSizesEvaluate above: sqrt(1/(1-rho)) (Chebyshev) for precision and log(1/(1-rho)) for 
+	 * recall.
+	 */
+	public static void errorsInSizesEvaluate(Map<String, Double> sizes, Map<String, Double> selectivities,  Map<String, Double> variances, 
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, Double alpha, Double beta, Double rho, 
+			ConcentrationBound bound, Double retrieveCost, Double evaluateCost, Map<String, Double> retrieve, 
+			Map<String, Double> evaluate) throws Exception {
+		errorsInSizesEvaluate(sizes, selectivities, variances, positiveSamples, negativeSamples, alpha, beta, rho, bound, 
+				"bernoulli", retrieveCost, evaluateCost, retrieve, evaluate);
+	}
+	
+	/**
+	 * Like errorsInSizesEvaluate above, for a plan that will be executed as execution ("bernoulli" or "quota", see 
+	 * PerformanceAnalysis.findStats). Quotas remove most of the execution variance the constraints pad for.
+	 */
+	public static void errorsInSizesEvaluate(Map<String, Double> sizes, Map<String, Double> selectivities,  Map<String, Double> variances, 
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, Double alpha, Double beta, Double rho, 
+			ConcentrationBound bound, String execution, Double retrieveCost, Double evaluateCost, Map<String, Double> retrieve, 
+			Map<String, Double> evaluate) throws Exception {
 		// long startTime = System.currentTimeMillis();
 		int numGroups = sizes.size();
 		JOptimizer jopt = new JOptimizer();
@@ -666,13 +905,17 @@ public class ProbabilisticSolvers {
 		}
 		
 		// Set Precision Constraint.
-		ConvexMultivariateRealFunction precisionConstraintFunction = new PrecisionConstraintFunction(alpha, rho, sizes, selectivities, 
-				variances, positiveSamples, negativeSamples);
+		PrecisionConstraintFunction precisionConstraintFunction = bound == null 
+				? new PrecisionConstraintFunction(alpha, rho, sizes, selectivities, variances, positiveSamples, negativeSamples)
+				: new PrecisionConstraintFunction(alpha, rho, bound, sizes, selectivities, variances, positiveSamples, negativeSamples);
+		precisionConstraintFunction.setExecution(execution);
 		inequalities[3 * numGroups] = precisionConstraintFunction;
 		
 		// Set Recall Constraint.
-		ConvexMultivariateRealFunction recallConstraintFunction = new RecallConstraintFunction(beta, rho, sizes, selectivities, 
-				variances, positiveSamples, negativeSamples);
+		RecallConstraintFunction recallConstraintFunction = bound == null 
+				? new RecallConstraintFunction(beta, rho, sizes, selectivities, variances, positiveSamples, negativeSamples)
+				: new RecallConstraintFunction(beta, rho, bound, sizes, selectivities, variances, positiveSamples, negativeSamples);
+		recallConstraintFunction.setExecution(execution);
 		inequalities[3 * numGroups + 1] = recallConstraintFunction;
 		request.setFi(inequalities);
 		
@@ -696,6 +939,183 @@ public class ProbabilisticSolvers {
 		// out.println(numGroups + "\t" + (System.currentTimeMillis() - startTime));
 	}
 	
+	/**
+	 * jointSamplingEvaluate chooses how many more tuples to sample per group together with the plan for the rest, 
+	 * minimizing the cost of sampling (retrieveCost + evaluateCost per sampled tuple) plus the cost of executing the 
+	 * plan, subject to the precision and recall constraints holding with probability rho. Sampling a group both 
+	 * finds its positives outright and shrinks the variance of its selectivity estimate, so it pays off for large 
+	 * groups of uncertain selectivity, which errorsInSizesEvaluate would otherwise have to pad for. Selectivities are
+	 * estimated from positiveSamples and negativeSamples.
+	 * The returned retrieve and evaluate probabilities are for the tuples left after sampling. Once the samples are 
+	 * taken, their outcomes are known, so re-planning with errorsInSizesEvaluate on the updated samples is usually 
+	 * cheaper than executing this plan.
+	 * @param sizes 			Maps tuple class to number of unsampled tuples.
+	 * @param positiveSamples	Maps tuple class to number of sampled tuples that were positive.
+	 * @param negativeSamples	Maps tuple class to number of sampled tuples that were negative.
+	 * @param alpha				Precision constraint.
+	 * @param beta				Recall constraint.
+	 * @param rho				Probability constraint for achieving given precision/recall.
+	 * @param bound				Gives the constraint buffers.
+	 * @param execution			"bernoulli" or "quota", see PerformanceAnalysis.findStats.
+	 * @param retrieveCost		Cost of retrieving a tuple.
+	 * @param evaluateCost		Cost of evaluating a tuple.
+	 * @param retrieve			Used to return the retrieval probability of unsampled tuples of tuple class.
+	 * @param evaluate			Used to return the evaluation probability of unsampled tuples of tuple class.
+	 * @param samples			Used to return the number of tuples of tuple class to sample.
+	 * @throws Exception 
+	 */
+	public static void jointSamplingEvaluate(Map<String, Double> sizes, Map<String, Integer> positiveSamples, 
+			Map<String, Integer> negativeSamples, Double alpha, Double beta, Double rho, ConcentrationBound bound, 
+			String execution, Double retrieveCost, Double evaluateCost, Map<String, Double> retrieve, 
+			Map<String, Double> evaluate, Map<String, Integer> samples) throws Exception {
+		int numGroups = sizes.size();
+		JOptimizer jopt = new JOptimizer();
+		OptimizationRequest request = new OptimizationRequest();
+		double[] objectiveWeights = new double[3 * numGroups];
+		int a = 0;
+		Double fixedCost = 0.0;
+		for (String key : sizes.keySet()) {
+			objectiveWeights[a] = sizes.get(key) * retrieveCost;
+			objectiveWeights[a + numGroups] = sizes.get(key) * evaluateCost;
+			objectiveWeights[a + 2 * numGroups] = sizes.get(key) * (retrieveCost + evaluateCost);
+			a++;
+			fixedCost += positiveSamples.get(key).doubleValue() + negativeSamples.get(key).doubleValue();
+		}
+		fixedCost *= (retrieveCost + evaluateCost);
+		// Set objective function.
+		LinearMultivariateRealFunction objective = new LinearMultivariateRealFunction(objectiveWeights, fixedCost);
+		request.setF0(objective);
+
+		ConvexMultivariateRealFunction[] inequalities = new ConvexMultivariateRealFunction[4 * numGroups + 2];
+		
+		// Set R_a + F_a < 1.0 constraints.
+		for (int i = 0; i < numGroups; i++) {
+			double[] q = new double[3 * numGroups];
+			q[i] = 1.0;
+			q[i + 2 * numGroups] = 1.0;
+			inequalities[i] = new LinearMultivariateRealFunction(q, -1.0);
+		}
+		// Set E_a > 0.0 constraints.
+		for (int i = 0; i < numGroups; i++) {
+			double[] q = new double[3 * numGroups];
+			q[i + numGroups] = -1.0;
+			inequalities[i + numGroups] = new LinearMultivariateRealFunction(q, 0.0);
+		}
+		// Set E_a < R_a constraints.
+		for (int i = 0; i < numGroups; i++) {
+			double[] q = new double[3 * numGroups];
+			q[i] = -1.0;
+			q[i + numGroups] = 1.0;
+			inequalities[i + 2 * numGroups] = new LinearMultivariateRealFunction(q, 0.0);
+		}
+		// Set F_a > 0.0 constraints.
+		for (int i = 0; i < numGroups; i++) {
+			double[] q = new double[3 * numGroups];
+			q[i + 2 * numGroups] = -1.0;
+			inequalities[i + 3 * numGroups] = new LinearMultivariateRealFunction(q, 0.0);
+		}
+		
+		GeneralPrecisionConstraintFunction precisionConstraintFunction = new GeneralPrecisionConstraintFunction(alpha, rho, 
+				bound, sizes, positiveSamples, negativeSamples);
+		precisionConstraintFunction.setExecution(execution);
+		inequalities[4 * numGroups] = precisionConstraintFunction;
+		GeneralRecallConstraintFunction recallConstraintFunction = new GeneralRecallConstraintFunction(beta, rho, bound, 
+				sizes, positiveSamples, negativeSamples);
+		recallConstraintFunction.setExecution(execution);
+		inequalities[4 * numGroups + 1] = recallConstraintFunction;
+		request.setFi(inequalities);
+		
+		// Sampling almost everything is feasible whenever anything is: the outcomes are then nearly all known.
+		double[] initialFeasiblePoint = new double[3 * numGroups];
+		for (a = 0; a < numGroups; a++) {
+			initialFeasiblePoint[a] = 0.01;
+			initialFeasiblePoint[a + numGroups] = 0.009;
+			initialFeasiblePoint[a + 2 * numGroups] = 0.98;
+		}
+		request.setInitialPoint(initialFeasiblePoint);
+		
+		jopt.setOptimizationRequest(request);
+		jopt.optimize();
+		OptimizationResponse response = jopt.getOptimizationResponse();
+		double[] solution = response.getSolution();
+		a = 0;
+		for (String key : sizes.keySet()) {
+			final double sampled = Math.min(Math.max(solution[a + 2 * numGroups], 0.0), 1.0);
+			final double remaining = 1 - sampled;
+			samples.put(key, (int) Math.round(sampled * sizes.get(key)));
+			retrieve.put(key, remaining > 0 ? Math.min(Math.max(solution[a], 0.0) / remaining, 1.0) : 0.0);
+			evaluate.put(key, remaining > 0 ? Math.min(Math.max(solution[a + numGroups], 0.0) / remaining, 1.0) : 0.0);
+			a++;
+		}
+	}
+	
+	/**
+	 * Value of sampling batch more tuples of each group, for sequential sampling: the reduction in the execution cost 
+	 * of the errorsInSizesEvaluate plan per sampled tuple, in units of the cost of sampling a tuple (retrieveCost + 
+	 * evaluateCost). Sampling a group pays for itself while its value is above 1. Found by finite differences: the 
+	 * plan is re-solved with the batch taken out of the group's size and added to its samples at the current 
+	 * selectivity estimate (so in expectation). The plans are solved from the samples alone, with the selectivities 
+	 * and variances errorsInSizesEvaluate's constraint functions derive from them, as for the plan that will be run
+	 * (e.g. by Experiments.adaptiveSampling). Costs numGroups + 1 solves; sequential samplers should re-solve only 
+	 * the groups whose values they need (executionCost, marginalSampleValue).
+	 * @throws Exception 		If the plan for the current samples can't be solved.
+	 */
+	public static Map<String, Double> marginalSampleValues(Map<String, Double> sizes, Map<String, Integer> positiveSamples, 
+			Map<String, Integer> negativeSamples, Double alpha, Double beta, Double rho, Double retrieveCost, 
+			Double evaluateCost, Integer batch) throws Exception {
+		final Double cost = executionCost(sizes, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, 
+				evaluateCost);
+		Map<String, Double> values = new HashMap<String, Double>();
+		for (String key : sizes.keySet()) {
+			values.put(key, marginalSampleValue(key, cost, sizes, positiveSamples, negativeSamples, alpha, beta, rho, 
+					retrieveCost, evaluateCost, batch));
+		}
+		return values;
+	}
+	
+	/**
+	 * Value of sampling batch more tuples of group key (see marginalSampleValues), given the cost of the plan for the
+	 * current samples (executionCost). One solve.
+	 */
+	public static Double marginalSampleValue(String key, Double cost, Map<String, Double> sizes, 
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, Double alpha, Double beta, 
+			Double rho, Double retrieveCost, Double evaluateCost, Integer batch) {
+		final int toSample = (int) Math.min(batch, Math.floor(sizes.get(key)));
+		if (toSample <= 0) {
+			return 0.0;
+		}
+		final int sampled = positiveSamples.get(key) + negativeSamples.get(key);
+		final int positives = (int) Math.round(toSample * (positiveSamples.get(key) + 1.0) / (sampled + 2));
+		Map<String, Double> newSizes = new HashMap<String, Double>(sizes);
+		Map<String, Integer> newPositiveSamples = new HashMap<String, Integer>(positiveSamples);
+		Map<String, Integer> newNegativeSamples = new HashMap<String, Integer>(negativeSamples);
+		newSizes.put(key, sizes.get(key) - toSample);
+		newPositiveSamples.put(key, positiveSamples.get(key) + positives);
+		newNegativeSamples.put(key, negativeSamples.get(key) + toSample - positives);
+		Double newCost;
+		try {
+			newCost = executionCost(newSizes, newPositiveSamples, newNegativeSamples, alpha, beta, rho, retrieveCost, 
+					evaluateCost);
+		} catch (Exception e) {
+			newCost = cost;
+		}
+		return (cost - newCost) / (toSample * (retrieveCost + evaluateCost));
+	}
+	
+	/**
+	 * Cost of executing the errorsInSizesEvaluate plan for the samples, without the cost of the samples already taken.
+	 */
+	public static Double executionCost(Map<String, Double> sizes, Map<String, Integer> positiveSamples, 
+			Map<String, Integer> negativeSamples, Double alpha, Double beta, Double rho, Double retrieveCost, 
+			Double evaluateCost) throws Exception {
+		Map<String, Double> retrieve = new HashMap<String, Double>();
+		Map<String, Double> evaluate = new HashMap<String, Double>();
+		errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, 
+				evaluateCost, retrieve, evaluate);
+		return retrieveCost * PerformanceAnalysis.retrieveCost(sizes, retrieve) + 
+				evaluateCost * PerformanceAnalysis.evaluateCost(sizes, evaluate);
+	}
+	
 	public static void main(String[] argv) throws Exception {
 		Map<String, Double> sizes = new HashMap<String, Double>();
 		Map<String, Double> selectivities = new HashMap<String, Double>();
@@ -0,0 +1,116 @@
+package solvers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+import utils.QuantileSketch;
+
+/**
+ * Scores given by a trained model to the training and test tuples, each tuple scored exactly once, together with
+ * the true labels. A score is the model's probability that the tuple is positive (the first class value). Groups
+ * can be (re-)built from a ScoreColumn with any numClasses or scheme without touching the model. The quantiles
+ * of the training scores, which the bucket-size scheme needs, come from a QuantileSketch rather than a sort.
+ */
+public class ScoreColumn implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	final double[] trainScores;
+	final boolean[] trainLabels;
+	final double[] testScores;
+	final boolean[] testLabels;
+	private QuantileSketch trainSketch;
+
+	public ScoreColumn (double[] trainScores, boolean[] trainLabels, double[] testScores, boolean[] testLabels) {
+		this(trainScores, trainLabels, testScores, testLabels, null);
+	}
+
+	/**
+	 * trainSketch, if not null, must already hold every training score (e.g. filled while scoring).
+	 */
+	public ScoreColumn (double[] trainScores, boolean[] trainLabels, double[] testScores, boolean[] testLabels, 
+			QuantileSketch trainSketch) {
+		if (trainScores.length != trainLabels.length || testScores.length != testLabels.length) {
+			throw new IllegalArgumentException("Scores and labels have different lengths");
+		}
+		this.trainScores = trainScores;
+		this.trainLabels = trainLabels;
+		this.testScores = testScores;
+		this.testLabels = testLabels;
+		this.trainSketch = trainSketch;
+	}
+
+	/**
+	 * Quantile sketch of the training scores. Built in one pass on first use if none was given.
+	 */
+	public synchronized QuantileSketch trainSketch () {
+		if (trainSketch == null) {
+			trainSketch = new QuantileSketch(QuantileSketch.DEFAULTERROR);
+			for (final double score : trainScores) {
+				trainSketch.add(score);
+			}
+		}
+		return trainSketch;
+	}
+
+	public int numTrain () {
+		return trainScores.length;
+	}
+
+	public int numTest () {
+		return testScores.length;
+	}
+
+	/**
+	 * Writes the score column in a compact binary format.
+	 */
+	public void write (String fileLocation) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileLocation)));
+		try {
+			writeColumn(dos, trainScores, trainLabels);
+			writeColumn(dos, testScores, testLabels);
+		} finally {
+			dos.close();
+		}
+	}
+
+	private static void writeColumn (DataOutputStream dos, double[] scores, boolean[] labels) throws IOException {
+		dos.writeInt(scores.length);
+		for (int i = 0; i < scores.length; i++) {
+			dos.writeDouble(scores[i]);
+			dos.writeBoolean(labels[i]);
+		}
+	}
+
+	/**
+	 * Reads a score column written by write.
+	 */
+	public static ScoreColumn read (String fileLocation) throws IOException {
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(fileLocation)));
+		try {
+			int numTrain = dis.readInt();
+			double[] trainScores = new double[numTrain];
+			boolean[] trainLabels = new boolean[numTrain];
+			readColumn(dis, trainScores, trainLabels);
+			int numTest = dis.readInt();
+			double[] testScores = new double[numTest];
+			boolean[] testLabels = new boolean[numTest];
+			readColumn(dis, testScores, testLabels);
+			return new ScoreColumn(trainScores, trainLabels, testScores, testLabels);
+		} finally {
+			dis.close();
+		}
+	}
+
+	private static void readColumn (DataInputStream dis, double[] scores, boolean[] labels) throws IOException {
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = dis.readDouble();
+			labels[i] = dis.readBoolean();
+		}
+	}
+}
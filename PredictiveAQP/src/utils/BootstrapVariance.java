@@ -0,0 +1,201 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Variances of group selectivities by the Poisson bootstrap: instead of resampling n labeled tuples with
+ * replacement, each replicate gives every tuple an independent Poisson(1) weight. Replicates then don't need the
+ * whole sample at once, so the labeled tuples are streamed in chunks of CHUNKROWS, processed in parallel. Each chunk
+ * draws its weights from its own Random, seeded from the seed and the chunk's index, so the result doesn't depend
+ * on the number of threads or the order the chunks run in.
+ * The tuples are in cells (e.g. groups), and weightedCounts returns, per replicate and cell, the total weight and
+ * the weight of positive tuples. Estimators that re-derive the groups in every replicate (see
+ * LogisticRegressionSolvers.bootstrapGroupVariances) instead take each replicate's weights whole, from replicates.
+ */
+public class BootstrapVariance {
+	public final static int DEFAULTREPLICATES = 200;
+	public final static int CHUNKROWS = 1 << 12;
+	private final static int MAXPOISSON = 20; // P(Poisson(1) > 20) is below 1e-19.
+	private final static double[] POISSONCDF = poissonCdf();
+
+	public interface Statistic {
+		/**
+		 * The statistic of the replicate in which tuple i has weight weights[i].
+		 */
+		double[] of (int[] weights) throws Exception;
+	}
+
+	/**
+	 * {weights, positiveWeights}, each indexed by [replicate][cell]. cells[i] is the cell of labeled tuple i, and
+	 * labels[i] whether it is positive.
+	 */
+	public static double[][][] weightedCounts (final int[] cells, final boolean[] labels, final int numCells,
+			final int replicates, int numThreads, final long seed) throws Exception {
+		final double[][] weights = new double[replicates][numCells];
+		final double[][] positiveWeights = new double[replicates][numCells];
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int chunk = 0; (long) chunk * CHUNKROWS < cells.length; chunk++) {
+				final int from = chunk * CHUNKROWS;
+				final int to = (int) Math.min((long) from + CHUNKROWS, cells.length);
+				final long chunkIndex = chunk;
+				futures.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						Random random = RandomStreams.stream(seed, chunkIndex);
+						double[][] chunkWeights = new double[replicates][numCells];
+						double[][] chunkPositiveWeights = new double[replicates][numCells];
+						for (int i = from; i < to; i++) {
+							for (int replicate = 0; replicate < replicates; replicate++) {
+								final int weight = poisson(random);
+								chunkWeights[replicate][cells[i]] += weight;
+								if (labels[i]) {
+									chunkPositiveWeights[replicate][cells[i]] += weight;
+								}
+							}
+						}
+						// Weights are integers, so the totals are exact whatever order the chunks are added in.
+						synchronized (weights) {
+							for (int replicate = 0; replicate < replicates; replicate++) {
+								for (int cell = 0; cell < numCells; cell++) {
+									weights[replicate][cell] += chunkWeights[replicate][cell];
+									positiveWeights[replicate][cell] += chunkPositiveWeights[replicate][cell];
+								}
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return new double[][][] {weights, positiveWeights};
+	}
+
+	/**
+	 * The statistic of each of replicates Poisson bootstrap replicates of n tuples, indexed by replicate. Replicate r
+	 * draws its weights from its own Random, seeded from the seed and r, and replicates run in parallel, each holding
+	 * the weights of all n tuples while it runs.
+	 */
+	public static double[][] replicates (final int n, int replicates, int numThreads, final long seed, 
+			final Statistic statistic) throws Exception {
+		double[][] statistics = new double[replicates][];
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+			for (int replicate = 0; replicate < replicates; replicate++) {
+				final long replicateIndex = replicate;
+				futures.add(executor.submit(new Callable<double[]>() {
+					@Override
+					public double[] call() throws Exception {
+						Random random = RandomStreams.stream(seed, replicateIndex);
+						int[] weights = new int[n];
+						for (int i = 0; i < n; i++) {
+							weights[i] = poisson(random);
+						}
+						return statistic.of(weights);
+					}
+				}));
+			}
+			for (int replicate = 0; replicate < replicates; replicate++) {
+				try {
+					statistics[replicate] = futures.get(replicate).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return statistics;
+	}
+
+	/**
+	 * Maps groupNames[g] to the bootstrap variance of the selectivity of group g, the fraction of its labeled tuples
+	 * that are positive. groups[i] is the group of labeled tuple i. Replicate selectivities are smoothed as
+	 * (positives + 1) / (tuples + 2), as in the constraint functions, so groups whose sampled tuples all agree still
+	 * get a positive variance. Ready for the variances argument of ProbabilisticSolvers.errorsInSizesEvaluate.
+	 */
+	public static Map<String, Double> groupVariances (int[] groups, boolean[] labels, String[] groupNames,
+			int replicates, int numThreads, long seed) throws Exception {
+		final double[][][] counts = weightedCounts(groups, labels, groupNames.length, replicates, numThreads, seed);
+		double[][] selectivities = new double[groupNames.length][replicates];
+		for (int replicate = 0; replicate < replicates; replicate++) {
+			for (int g = 0; g < groupNames.length; g++) {
+				selectivities[g][replicate] = (counts[1][replicate][g] + 1) / (counts[0][replicate][g] + 2);
+			}
+		}
+		Map<String, Double> variances = new HashMap<String, Double>();
+		for (int g = 0; g < groupNames.length; g++) {
+			variances.put(groupNames[g], variance(selectivities[g], replicates));
+		}
+		return variances;
+	}
+
+	/**
+	 * Sample variance of the first n values.
+	 */
+	public static double variance (double[] values, int n) {
+		if (n < 2) {
+			return 0.0;
+		}
+		double mean = 0.0;
+		for (int i = 0; i < n; i++) {
+			mean += values[i];
+		}
+		mean /= n;
+		double variance = 0.0;
+		for (int i = 0; i < n; i++) {
+			variance += (values[i] - mean) * (values[i] - mean);
+		}
+		return variance / (n - 1);
+	}
+
+	/**
+	 * A Poisson(1) draw, by inverting its CDF.
+	 */
+	static int poisson (Random random) {
+		final double u = random.nextDouble();
+		int k = 0;
+		while (k < MAXPOISSON && u > POISSONCDF[k]) {
+			k++;
+		}
+		return k;
+	}
+
+	private static double[] poissonCdf () {
+		double[] cdf = new double[MAXPOISSON + 1];
+		double probability = Math.exp(-1);
+		double total = 0.0;
+		for (int k = 0; k <= MAXPOISSON; k++) {
+			total += probability;
+			cdf[k] = total;
+			probability /= k + 1;
+		}
+		return cdf;
+	}
+}
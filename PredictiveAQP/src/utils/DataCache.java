@@ -0,0 +1,190 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import dataextraction.ArffFiles;
+import dataextraction.ColumnarDataset;
+import dataextraction.DataSplit;
+import weka.core.converters.ConverterUtils.DataSource;
+
+/**
+ * In-process cache of parsed datasets, keyed by (file, target), and of trained models, keyed by (file, target, split
+ * seed and version, trainFraction, attribute mask, model name, training parameters), so trainFraction sweeps and
+ * repeated experiments parse each file and train each model once. Keys include the file's modification time, so an
+ * edited file is parsed again, and FORMATVERSION, to be bumped when what an entry holds changes. If a cache directory
+ * is set, entries are also serialized there and read back by later runs; an entry that can't be read back as the
+ * expected type is recomputed. Concurrent requests for the same key wait for a single computation.
+ */
+public class DataCache {
+	public final static String CACHEEXTENSION = ".ser";
+	public final static int FORMATVERSION = 2;
+
+	private static final ConcurrentMap<String, FutureTask<Object>> entries = new ConcurrentHashMap<String, FutureTask<Object>>();
+	private static volatile String cacheDirectory = null;
+
+	/**
+	 * Persists cache entries as files in directory (created if needed). null turns persistence off.
+	 */
+	public static void setCacheDirectory (String directory) {
+		if (directory != null) {
+			new File(directory).mkdirs();
+		}
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Empties the in-process cache. Persisted entries are kept.
+	 */
+	public static void clear () {
+		entries.clear();
+	}
+
+	/**
+	 * The dataset in fileLocation, with class attribute target, parsed on first use. Arff files are read by
+	 * ArffFiles.readArff; other formats go through weka's DataSource.
+	 */
+	public static ColumnarDataset getDataset (final String fileLocation, final Integer target) throws Exception {
+		final String key = "dataset\t" + fileKey(fileLocation) + "\t" + target;
+		return (ColumnarDataset) get(key, ColumnarDataset.class, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				if (ArffFiles.isArff(fileLocation)) {
+					return ArffFiles.readArff(fileLocation, target);
+				}
+				DataSource source = new DataSource(fileLocation);
+				return ColumnarDataset.fromInstances(source.getDataSet(target));
+			}
+		});
+	}
+
+	/**
+	 * getDataset with every nominal attribute of more than maxValues values hashed into numBuckets values (see
+	 * ColumnarDataset.hashNominalAttributes), hashed on first use.
+	 */
+	public static ColumnarDataset getHashedDataset (final String fileLocation, final Integer target, final int maxValues,
+			final int numBuckets) throws Exception {
+		final String key = "hashed\t" + fileKey(fileLocation) + "\t" + target + "\t" + maxValues + "\t" + numBuckets;
+		return (ColumnarDataset) get(key, ColumnarDataset.class, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getDataset(fileLocation, target).hashNominalAttributes(maxValues, numBuckets);
+			}
+		});
+	}
+
+	/**
+	 * The model called modelName, of class modelClass, trained on split of the dataset (fileLocation, target) with the
+	 * attributes in mask, trained by trainer on first use. parameters lists everything else the trained model depends
+	 * on (e.g. ridge and hash buckets), so that models trained with different settings get different keys.
+	 */
+	public static <T extends Serializable> T getModel (String fileLocation, Integer target, DataSplit split, boolean[] mask,
+			String modelName, String parameters, Class<T> modelClass, final Callable<T> trainer) throws Exception {
+		StringBuilder key = new StringBuilder("model\t").append(modelName).append("\t").append(fileKey(fileLocation));
+		key.append("\t").append(target).append("\tsplit").append(DataSplit.VERSION).append("\t").append(split.seed());
+		key.append("\t").append(split.trainFraction()).append("\t").append(parameters).append("\t");
+		for (final boolean selected : mask) {
+			key.append(selected ? '1' : '0');
+		}
+		return modelClass.cast(get(key.toString(), modelClass, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return trainer.call();
+			}
+		}));
+	}
+
+	private static String fileKey (String fileLocation) {
+		File file = new File(fileLocation);
+		return "v" + FORMATVERSION + "\t" + file.getAbsolutePath() + "\t" + file.lastModified();
+	}
+
+	private static Object get (final String key, final Class<?> type, final Callable<Object> compute) throws Exception {
+		FutureTask<Object> task = entries.get(key);
+		if (task == null) {
+			FutureTask<Object> newTask = new FutureTask<Object>(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return load(key, type, compute);
+				}
+			});
+			task = entries.putIfAbsent(key, newTask);
+			if (task == null) {
+				task = newTask;
+				task.run();
+			}
+		}
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			entries.remove(key, task);
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the entry from the cache directory if it is there and of class type, else computes it (and writes it
+	 * there).
+	 */
+	private static Object load (String key, Class<?> type, Callable<Object> compute) throws Exception {
+		final String directory = cacheDirectory;
+		if (directory == null) {
+			return compute.call();
+		}
+		File file = new File(directory, digest(key) + CACHEEXTENSION);
+		if (file.exists()) {
+			try {
+				ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					final Object value = ois.readObject();
+					if (type.isInstance(value)) {
+						return value;
+					}
+				} finally {
+					ois.close();
+				}
+			} catch (IOException e) {
+				// Unreadable entry (e.g. written by an older version): recompute it below.
+			} catch (ClassNotFoundException e) {
+				// Entry of a class that no longer exists: recompute it below.
+			}
+		}
+		Object value = compute.call();
+		File temp = new File(directory, file.getName() + ".tmp");
+		ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			oos.writeObject(value);
+		} finally {
+			oos.close();
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+		}
+		return value;
+	}
+
+	private static String digest (String key) throws Exception {
+		byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+		StringBuilder sb = new StringBuilder();
+		for (final byte b : hash) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
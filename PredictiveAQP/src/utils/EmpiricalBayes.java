@@ -0,0 +1,86 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * Selectivity estimates for the groups that borrow strength from each other, instead of giving each group its own
+ * fixed prior (the (Fc + 1) / (Fc + Fw + 2) of the constraint functions). The group selectivities are taken to be
+ * drawn from a common Beta(a, b), fitted by the method of moments to the sample counts of all groups. With
+ * Fc_g + Fw_g = n_g tuples sampled from group g, its posterior is Beta(a + Fc_g, b + Fw_g), with mean
+ * s_g = (a + Fc_g) / (a + b + n_g) and variance s_g (1 - s_g) / (a + b + n_g + 1).
+ * Groups with few samples are pulled towards the overall selectivity, and with low variance when the groups are
+ * alike, so they need fewer samples than under the per group prior. The estimates are meant for the selectivities
+ * and variances arguments of ProbabilisticSolvers.errorsInSizesEvaluate.
+ */
+public class EmpiricalBayes {
+	public final static double MINPRIORSTRENGTH = 2.0; // a + b, as weak as the per group prior.
+	// a + b when the groups vary no more than binomial noise explains: the selectivities are then taken to vary with
+	// a standard deviation of about sqrt(mu (1 - mu) / 1000), rather than not at all.
+	public final static double MAXPRIORSTRENGTH = 1000.0;
+
+	/**
+	 * {a, b} of the Beta prior fitted to the samples. The moment estimator: with p_g = Fc_g / n_g, mu the pooled
+	 * selectivity and N the total samples, for G sampled groups
+	 * E[sum_g n_g (p_g - mu)^2] = mu(1-mu) [(G - 1) + (N - sum_g n_g^2 / N - (G - 1)) / (a + b + 1)].
+	 * The strength a + b is kept within [MINPRIORSTRENGTH, MAXPRIORSTRENGTH], and is MAXPRIORSTRENGTH if the groups
+	 * vary no more than binomial noise explains (or the samples can't tell, e.g. one per group).
+	 */
+	public static double[] fitPrior (Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
+		double total = 0.0;
+		double totalPositive = 0.0;
+		double sumSquares = 0.0;
+		int numGroups = 0;
+		for (String key : positiveSamples.keySet()) {
+			final double n = positiveSamples.get(key) + negativeSamples.get(key);
+			if (n > 0) {
+				total += n;
+				totalPositive += positiveSamples.get(key);
+				sumSquares += n * n;
+				numGroups++;
+			}
+		}
+		if (numGroups == 0) {
+			return new double[] {MINPRIORSTRENGTH / 2, MINPRIORSTRENGTH / 2};
+		}
+		final double mu = (totalPositive + 0.5) / (total + 1); // Kept off 0 and 1.
+		double spread = 0.0;
+		for (String key : positiveSamples.keySet()) {
+			final double n = positiveSamples.get(key) + negativeSamples.get(key);
+			if (n > 0) {
+				final double p = positiveSamples.get(key) / n;
+				spread += n * (p - mu) * (p - mu);
+			}
+		}
+		double strength = MAXPRIORSTRENGTH;
+		final double denominator = total - sumSquares / total - (numGroups - 1);
+		if (denominator > 0) {
+			final double correlation = (spread / (mu * (1 - mu)) - (numGroups - 1)) / denominator; // 1 / (a + b + 1).
+			if (correlation > 0) {
+				strength = Math.max(Math.min(1 / correlation - 1, MAXPRIORSTRENGTH), MINPRIORSTRENGTH);
+			}
+		}
+		return new double[] {mu * strength, (1 - mu) * strength};
+	}
+
+	/**
+	 * Fills selectivities and variances with the posterior means and variances of the groups of sizes, under the
+	 * prior fitted to all of the samples. Groups without samples get the prior's mean and variance.
+	 */
+	public static void shrink (Map<String, Double> sizes, Map<String, Integer> positiveSamples,
+			Map<String, Integer> negativeSamples, Map<String, Double> selectivities, Map<String, Double> variances) {
+		final double[] prior = fitPrior(positiveSamples, negativeSamples);
+		for (String key : sizes.keySet()) {
+			int positives = 0;
+			int negatives = 0;
+			if (positiveSamples.containsKey(key)) {
+				positives = positiveSamples.get(key);
+				negatives = negativeSamples.get(key);
+			}
+			final double a = prior[0] + positives;
+			final double b = prior[1] + negatives;
+			final double selectivity = a / (a + b);
+			selectivities.put(key, selectivity);
+			variances.put(key, selectivity * (1 - selectivity) / (a + b + 1));
+		}
+	}
+}
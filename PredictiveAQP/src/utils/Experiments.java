@@ -6,17 +6,29 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
+import dataextraction.ColumnarDataset;
+import solvers.ActiveLearningSolvers;
+import solvers.ConcentrationBound;
 import solvers.ExpectationSolvers;
 import solvers.LogisticRegressionSolvers;
 import solvers.ProbabilisticSolvers;
+import solvers.ScoreColumn;
 
 public class Experiments {
-
+	public final static int ADAPTIVEPILOT = 10;
+	public final static int MAXADAPTIVEROUNDS = 1000;
+	public final static int MAXADAPTIVERETRIES = 100; // Consecutive unsolvable samples before adaptiveSampling gives up.
+	public final static double MONTECARLOWIDTH = 0.01; // Relative width of the confidence interval on mean cost.
+	public final static int MONTECARLOMINITERATIONS = 10;
+	
 	public static void performanceComparison(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
-			Double beta, Double rho, Double retrieveCost, Double evaluateCost) {
+			Double beta, Double rho, Double retrieveCost, Double evaluateCost) throws Exception {
 		Map<String, Double> retrieve = new HashMap<String, Double>();
 		Map<String, Double> evaluate = new HashMap<String, Double>();
 		Double numRetrieved;
@@ -56,36 +68,52 @@ public class Experiments {
 			negative.put(key, (int) Math.round(sizes.get(key) * (1 - selectivities.get(key))));
 		}
 		final Integer numIters = 50; // 1 for computing time
-		Double retrieves = 0.0;
-		Double evaluates = 0.0;
-		for (Integer iter = 0; iter < numIters; iter++) {
-			Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
-			Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
-			retrieve = new HashMap<String, Double>();
-			evaluate = new HashMap<String, Double>();
-			//ExpectationSolvers.biGreedyEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-			//ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-			// Long timer = System.currentTimeMillis(); 
-			Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, "constant", num);
-			PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-			try {
-				ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, retrieve, evaluate);
-			} catch (Exception e) {
-				PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-				iter--;
-				continue;
+		MonteCarlo monteCarlo = new MonteCarlo(RandomStreams.newStream().nextLong(), true, MONTECARLOWIDTH, MONTECARLOMINITERATIONS, numIters / 2);
+		MonteCarlo.Estimate estimate = monteCarlo.estimate(samplingTrial(sizes, positive, negative, "constant", num, "laplace", 
+				alpha, beta, rho, retrieveCost, evaluateCost), 2);
+		out.println("sampling Scheme\t" + estimate.mean[0] + "\t" + estimate.mean[1]);
+	}
+	
+	/**
+	 * One iteration of the sampling experiments, for MonteCarlo: samples by scheme with random, plans with 
+	 * errorsInSizesEvaluate on the selectivity estimates of estimator (see samplingCost), and returns the plan's 
+	 * {expected retrieves, expected evaluates, cost}, sampled tuples included. The samples are undone afterwards.
+	 */
+	private static MonteCarlo.Trial samplingTrial (final Map<String, Double> sizes, final Map<String, Integer> positive, 
+			final Map<String, Integer> negative, final String scheme, final double num, final String estimator, 
+			final Double alpha, final Double beta, final Double rho, final Double retrieveCost, final Double evaluateCost) {
+		return new MonteCarlo.Trial() {
+			@Override
+			public double[] run(Random random) throws Exception {
+				Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
+				Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
+				Map<String, Double> retrieve = new HashMap<String, Double>();
+				Map<String, Double> evaluate = new HashMap<String, Double>();
+				Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, scheme, num);
+				PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples, random);
+				try {
+					Map<String, Double> estimates = null;
+					Map<String, Double> variances = null;
+					if (estimator.equals("empirical-bayes")) {
+						estimates = new HashMap<String, Double>();
+						variances = new HashMap<String, Double>();
+						EmpiricalBayes.shrink(sizes, positiveSamples, negativeSamples, estimates, variances);
+					}
+					ProbabilisticSolvers.errorsInSizesEvaluate(sizes, estimates, variances, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, retrieve, evaluate);
+					Map<String, Double> stats = PerformanceAnalysis.findStats(sizes, retrieve, evaluate, positive, negative, 
+							positiveSamples, negativeSamples, "bernoulli", random);
+					final double retrieves = stats.get("expectedRetrieves");
+					final double evaluates = stats.get("expectedEvaluates");
+					return new double[] {retrieves, evaluates, retrieveCost * retrieves + evaluateCost * evaluates};
+				} finally {
+					PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
+				}
 			}
-			// out.println("time :" + (System.currentTimeMillis() - timer)); // remove
-			Map<String, Double> stats = PerformanceAnalysis.findStats(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples);
-			retrieves += stats.get("expectedRetrieves");
-			evaluates += stats.get("expectedEvaluates");
-			PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-		}
-		out.println("sampling Scheme\t" + retrieves/numIters + "\t" + evaluates/numIters);
+		};
 	}
 	
 	public static void constraintsCost(Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
-			Double beta, Double rho, Double retrieveCost, Double evaluateCost) throws IOException {
+			Double beta, Double rho, Double retrieveCost, Double evaluateCost) throws Exception {
 		Map<String, Integer> positive = new HashMap<String, Integer>();
 		Map<String, Integer> negative = new HashMap<String, Integer>();
 		for (String key : sizes.keySet()) {
@@ -95,35 +123,16 @@ public class Experiments {
 		
 		PrintWriter pw;
 		final Integer numIters = 50;
+		// One seed for all cells, so neighbouring cells see the same samples.
+		MonteCarlo monteCarlo = new MonteCarlo(RandomStreams.newStream().nextLong(), true, MONTECARLOWIDTH, MONTECARLOMINITERATIONS, numIters / 2);
 		
 		for (Double num = 0.5; num < 5.0; num += 1.0) {
 			pw = new PrintWriter(new FileWriter("Cost_alphabeta_"+num));
 			for (alpha = 0.2; alpha < 0.95; alpha += 0.1) {
 				for (beta = 0.2; beta <0.95; beta += 0.1) {
-					Double retrieves = 0.0;
-					Double evaluates = 0.0;
-					for (Integer iter = 0; iter < numIters; iter++) {
-						Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
-						Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
-						Map<String, Double> retrieve = new HashMap<String, Double>();
-						Map<String, Double> evaluate = new HashMap<String, Double>();
-						//ExpectationSolvers.biGreedyEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-						//ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-						Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, "two-third-power", alpha*num);
-						PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-						try {
-							ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, retrieve, evaluate);
-						} catch (Exception e) {
-							PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-							iter--;
-							continue;
-						}
-						Map<String, Double> stats = PerformanceAnalysis.findStats(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples);
-						retrieves += stats.get("expectedRetrieves");
-						evaluates += stats.get("expectedEvaluates");
-						PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-					}
-					pw.println(num + "\t" + alpha + "\t" + beta + "\t" + retrieves/numIters + '\t' + evaluates/numIters);
+					MonteCarlo.Estimate estimate = monteCarlo.estimate(samplingTrial(sizes, positive, negative, "two-third-power", 
+							alpha*num, "laplace", alpha, beta, rho, retrieveCost, evaluateCost), 2);
+					pw.println(num + "\t" + alpha + "\t" + beta + "\t" + estimate.mean[0] + '\t' + estimate.mean[1]);
 					out.println("constraintCost done with " + alpha + "\t" + beta);
 				}
 			}
@@ -133,6 +142,18 @@ public class Experiments {
 	
 	public static void logisticRegression (String inputFile, Integer target, Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
 			Double beta, Double rho, Double retrieveCost, Double evaluateCost) throws Exception {
+		logisticRegression(inputFile, target, sizes, selectivities, alpha, beta, rho, retrieveCost, evaluateCost, "random");
+	}
+	
+	/**
+	 * trainingSet is how the tuples the model is trained on are labeled:
+	 * random: a uniformly random trainFraction of the tuples.
+	 * active-uncertainty, active-expected-cost: active learning (see ActiveLearningSolvers) with that strategy, 
+	 * starting from and adding batches of trainFraction / 10 of the tuples.
+	 * Either way, every label consumed is counted as a training retrieve and evaluate.
+	 */
+	public static void logisticRegression (String inputFile, Integer target, Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double rho, Double retrieveCost, Double evaluateCost, String trainingSet) throws Exception {
 		Map<String, Integer> positive = new HashMap<String, Integer>();
 		Map<String, Integer> negative = new HashMap<String, Integer>();
 		for (String key : sizes.keySet()) {
@@ -143,7 +164,8 @@ public class Experiments {
 		selectivities = new HashMap<String, Double>();
 		final int numClasses = 10;
 		Double trainFraction = 0.01;
-		PrintWriter pw = new PrintWriter(new FileWriter("Cost_logisticGroups_bucketsize"+trainFraction));
+		PrintWriter pw = new PrintWriter(new FileWriter("Cost_logisticGroups_bucketsize"+trainFraction
+				+ (trainingSet.equals("random") ? "" : "_" + trainingSet)));
 		Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
 		Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
 		Map<String, Integer> targetPositiveSamples = new HashMap<String, Integer>();
@@ -151,7 +173,19 @@ public class Experiments {
 		Integer trainingEvaluates = 0;
 		Integer trainingRetrieves = 0;
 		final Integer numIters = 50;
-		LogisticRegressionSolvers.logisticRegressionGroups(inputFile, target, sizes, selectivities, positiveSamples, negativeSamples, numClasses, trainFraction, "bucket-size");
+		if (trainingSet.equals("random")) {
+			LogisticRegressionSolvers.logisticRegressionGroups(inputFile, target, sizes, selectivities, positiveSamples, negativeSamples, numClasses, trainFraction, "bucket-size");
+		} else if (trainingSet.startsWith("active-")) {
+			ColumnarDataset data = DataCache.getHashedDataset(inputFile, target, ColumnarDataset.MAXONEHOTVALUES,
+					ColumnarDataset.DEFAULTHASHBUCKETS);
+			final int batchSize = Math.max(10, (int) Math.round(trainFraction * data.numRows() / 10));
+			ScoreColumn scores = ActiveLearningSolvers.activeLearningScores(data, data.attributeMask(ColumnarDataset.MAXONEHOTVALUES), batchSize, batchSize, 
+					trainingSet.substring("active-".length()), numClasses, alpha, beta, rho, retrieveCost, evaluateCost, 
+					RandomStreams.newStream().nextLong());
+			LogisticRegressionSolvers.logisticRegressionGroups(scores, sizes, selectivities, positiveSamples, negativeSamples, numClasses, "bucket-size");
+		} else {
+			throw new IllegalArgumentException("trainingSet parameter not recognized");
+		}
 		for (String key : sizes.keySet()) {
 			//////// This depends on whether we should count examples in the training set towards selectivities. 
 			trainingEvaluates += positiveSamples.get(key) + negativeSamples.get(key);
@@ -162,6 +196,7 @@ public class Experiments {
 			targetPositiveSamples.put(key, positiveSamples.get(key));
 			targetNegativeSamples.put(key, negativeSamples.get(key));
 		}
+		out.println("labels consumed: " + trainingEvaluates);
 		for (String key : sizes.keySet()) {
 			positive.put(key, (int) Math.round(sizes.get(key) * selectivities.get(key)));
 			negative.put(key, (int) Math.round(sizes.get(key) * (1 - selectivities.get(key))));
@@ -201,6 +236,17 @@ public class Experiments {
 		pw.close();
 	}
 	
+	/**
+	 * Sequential sampling: after a pilot of ADAPTIVEPILOT tuples per group, each round re-solves the plan, finds the
+	 * value of sampling batch more tuples of each group (ProbabilisticSolvers.marginalSampleValue), and samples the 
+	 * batch from the group of highest value, until no group's value is above 1, i.e. until no more sampling pays for
+	 * itself. Values are re-solved lazily: a group's value is only recomputed once it is the highest, and the group
+	 * is sampled if it still is. So a round costs a couple of solves rather than one per group, at the price of
+	 * ranking the other groups by values from earlier rounds. Prints the mean tuples sampled, expected retrieves and 
+	 * evaluates (sampled tuples included), and total cost, per batch size, for comparison with the fixed schemes of 
+	 * samplingCost.
+	 * @throws Exception 		If MAXADAPTIVERETRIES samples in a row can't be planned for.
+	 */
 	public static void adaptiveSampling (Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
 			Double beta, Double rho, Double retrieveCost, Double evaluateCost, List<Integer> predictors) throws Exception {
 		Map<String, Integer> positive = new HashMap<String, Integer>();
@@ -217,44 +263,92 @@ public class Experiments {
 		for (Integer pred : predictors) {
 			predictorString = predictorString + "-" + pred;
 		}
-		pw = new PrintWriter(new FileWriter("Cost_"+predictorString+"_two-third-power-selectivity"));
-		for (Double num = 0.5; num < 15.0; num += 1) {
+		pw = new PrintWriter(new FileWriter("Cost_"+predictorString+"_adaptive"));
+		for (Integer batch : new Integer[] {10, 20, 50, 100, 200}) {
+			Double sampled = 0.0;
 			Double retrieves = 0.0;
 			Double evaluates = 0.0;
+			int retries = 0;
 			for (Integer iter = 0; iter < numIters; iter++) {
 				Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
 				Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
 				Map<String, Double> retrieve = new HashMap<String, Double>();
 				Map<String, Double> evaluate = new HashMap<String, Double>();
-				//ExpectationSolvers.biGreedyEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-				//ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-				for (int rep = 0; rep < 10; rep++) {
-					Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, "two-third-power-selectivity", num);
-					PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-				}
-				
+				Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, "constant", ADAPTIVEPILOT);
+				PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
 				try {
+					Map<String, Double> values = new HashMap<String, Double>();
+					for (int round = 0; round < MAXADAPTIVEROUNDS; round++) {
+						final Double cost = ProbabilisticSolvers.executionCost(sizes, positiveSamples, negativeSamples, 
+								alpha, beta, rho, retrieveCost, evaluateCost);
+						Set<String> fresh = new HashSet<String>();
+						String best;
+						while (true) {
+							// The highest value, groups without one yet first, recomputed until it is fresh.
+							best = null;
+							for (String key : sizes.keySet()) {
+								if (best == null || !values.containsKey(key) 
+										|| (values.containsKey(best) && values.get(key) > values.get(best))) {
+									best = key;
+								}
+							}
+							if (best == null || fresh.contains(best)) {
+								break;
+							}
+							values.put(best, ProbabilisticSolvers.marginalSampleValue(best, cost, sizes, positiveSamples, 
+									negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, batch));
+							fresh.add(best);
+						}
+						if (best == null || values.get(best) < 1.0) {
+							break;
+						}
+						Map<String, Integer> batchSamples = new HashMap<String, Integer>();
+						batchSamples.put(best, batch);
+						PerformanceAnalysis.sample(sizes, positive, negative, batchSamples, positiveSamples, negativeSamples);
+					}
 					ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, retrieve, evaluate);
 				} catch (Exception e) {
 					PerformanceAnalysis.unsample(sizes, positive, negative, null, positiveSamples, negativeSamples);
+					if (++retries >= MAXADAPTIVERETRIES) {
+						pw.close();
+						throw new Exception("No plan for " + MAXADAPTIVERETRIES + " adaptive samples in a row", e);
+					}
 					iter--;
 					continue;
 				}
+				retries = 0;
 				Map<String, Double> stats = PerformanceAnalysis.findStats(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples);
+				for (String key : positiveSamples.keySet()) {
+					sampled += positiveSamples.get(key) + negativeSamples.get(key);
+				}
 				retrieves += stats.get("expectedRetrieves");
 				evaluates += stats.get("expectedEvaluates");
 				PerformanceAnalysis.unsample(sizes, positive, negative, null, positiveSamples, negativeSamples);
 			}
-			pw.println(num + "\t" + retrieves/numIters + '\t' + evaluates/numIters);
-			out.println("done with "+num);
+			final Double cost = (retrieveCost * retrieves + evaluateCost * evaluates) / numIters;
+			pw.println(batch + "\t" + sampled/numIters + "\t" + retrieves/numIters + '\t' + evaluates/numIters + '\t' + cost);
+			out.println("done with "+batch);
 		}
 		pw.close();
-		
 	}
 	
 	public static void samplingCost (Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
 			Double beta, Double rho, Double retrieveCost, Double evaluateCost, List<Integer> predictors,
 			String samplingScheme) throws Exception {
+		samplingCost(sizes, selectivities, alpha, beta, rho, retrieveCost, evaluateCost, predictors, samplingScheme, "laplace");
+	}
+	
+	/**
+	 * Like samplingCost above, with the group selectivities and their variances estimated by estimator:
+	 * laplace: each group on its own, as in the constraint functions.
+	 * empirical-bayes: shrunken towards each other by EmpiricalBayes.shrink.
+	 */
+	public static void samplingCost (Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double rho, Double retrieveCost, Double evaluateCost, List<Integer> predictors,
+			String samplingScheme, String estimator) throws Exception {
+		if (!estimator.equals("laplace") && !estimator.equals("empirical-bayes")) {
+			throw new IllegalArgumentException("estimator parameter not recognized");
+		}
 		Map<String, Integer> positive = new HashMap<String, Integer>();
 		Map<String, Integer> negative = new HashMap<String, Integer>();
 		for (String key : sizes.keySet()) {
@@ -269,39 +363,21 @@ public class Experiments {
 			predictorString = predictorString + "-" + pred;
 		}
 		
-		pw = new PrintWriter(new FileWriter("Cost_"+predictorString+"_"+samplingScheme));
+		pw = new PrintWriter(new FileWriter("Cost_"+predictorString+"_"+samplingScheme
+				+(estimator.equals("laplace") ? "" : "_"+estimator)));
 		Double numMin = 100.0, numMax = 5000.0, numInc = 200.0;
 		if (!samplingScheme.equals("constant")) {
 			numMin = 0.5;
 			numMax = 15.0;
 			numInc = 1.0;
 		}
+		// One seed for all sample sizes, so the curve is as smooth as the differences between sample sizes allow.
+		MonteCarlo monteCarlo = new MonteCarlo(RandomStreams.newStream().nextLong(), true, MONTECARLOWIDTH, MONTECARLOMINITERATIONS, numIters / 2);
 		for (Double num = numMin; num < numMax; num += numInc) {
-			Double retrieves = 0.0;
-			Double evaluates = 0.0;
-			for (Integer iter = 0; iter < numIters; iter++) {
-				Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
-				Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
-				Map<String, Double> retrieve = new HashMap<String, Double>();
-				Map<String, Double> evaluate = new HashMap<String, Double>();
-				//ExpectationSolvers.biGreedyEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-				//ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-				Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, samplingScheme, num);
-				PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-				try {
-					ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, retrieve, evaluate);
-				} catch (Exception e) {
-					PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-					iter--;
-					continue;
-				}
-				Map<String, Double> stats = PerformanceAnalysis.findStats(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples);
-				retrieves += stats.get("expectedRetrieves");
-				evaluates += stats.get("expectedEvaluates");
-				PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-			}
-			pw.println(num + "\t" + retrieves/numIters + '\t' + evaluates/numIters);
-			out.println(num + "\t" + retrieves/numIters + '\t' + evaluates/numIters);
+			MonteCarlo.Estimate estimate = monteCarlo.estimate(samplingTrial(sizes, positive, negative, samplingScheme, num, 
+					estimator, alpha, beta, rho, retrieveCost, evaluateCost), 2);
+			pw.println(num + "\t" + estimate.mean[0] + '\t' + estimate.mean[1]);
+			out.println(num + "\t" + estimate.mean[0] + '\t' + estimate.mean[1] + "\t(" + estimate.observations + " observations)");
 		}
 		pw.close();
 	}
@@ -339,7 +415,7 @@ public class Experiments {
 					continue;
 				}
 				
-				Map<String, Double> avgstats = PerformanceAnalysis.precisionRecallThresholdFraction(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, alpha, beta, 10);
+				Map<String, Double> avgstats = PlanEvaluator.precisionRecallProbabilities(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, alpha, beta, "exact");
 				precision += avgstats.get("precision");
 				recall += avgstats.get("recall");
 				PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
@@ -349,39 +425,227 @@ public class Experiments {
 		}
 		pw.close();
 		
+		// Nothing is sampled here, so the plan is the same in every iteration, and one exact evaluation replaces them.
 		pw = new PrintWriter(new FileWriter("PrecRecall_sizesKnown"));
 		for (rho = 0.5; rho < 0.95; rho += 0.050) {
-			Double precision = 0.0;
-			Double recall = 0.0;
-			for (Integer iter = 0; iter < numIters; iter++) {
+			Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
+			Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
+			Map<String, Double> retrieve = new HashMap<String, Double>();
+			Map<String, Double> evaluate = new HashMap<String, Double>();
+			//ExpectationSolvers.biGreedyEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
+			ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
+			Map<String, Double> avgstats = PlanEvaluator.precisionRecallProbabilities(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, alpha, beta, "exact");
+			pw.println(rho + "\t" + avgstats.get("precision") + '\t' + avgstats.get("recall"));
+			out.println("done with "+rho);
+		}
+		pw.close();
+	}
+	
+	/**
+	 * Validates each ConcentrationBound with the Monte Carlo checker (precisionRecallThresholdFraction, iterations
+	 * runs per plan). For rho from 0.5 to 0.9, plans with sizesKnownEvaluate, and with errorsInSizesEvaluate on one
+	 * "two-third-power" sample shared by all bounds, and prints each plan's cost, the fractions of runs meeting 
+	 * alpha and beta, and whether both fractions reach rho. The cheapest bound that meets rho is the one to use.
+	 */
+	public static void concentrationBoundAccuracy (Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double retrieveCost, Double evaluateCost, Integer iterations) throws Exception {
+		Map<String, Integer> positive = new HashMap<String, Integer>();
+		Map<String, Integer> negative = new HashMap<String, Integer>();
+		for (String key : sizes.keySet()) {
+			positive.put(key, (int) Math.round(sizes.get(key) * selectivities.get(key)));
+			negative.put(key, (int) Math.round(sizes.get(key) * (1 - selectivities.get(key))));
+		}
+		PrintWriter pw = new PrintWriter(new FileWriter("PrecRecall_bounds"));
+		pw.println("rho\tsolver\tbound\tcost\tprecision\trecall\tmeetsRho");
+		for (Double rho = 0.5; rho < 0.95; rho += 0.1) {
+			for (ConcentrationBound bound : ConcentrationBound.values()) {
 				Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
 				Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
 				Map<String, Double> retrieve = new HashMap<String, Double>();
 				Map<String, Double> evaluate = new HashMap<String, Double>();
-				//ExpectationSolvers.biGreedyEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-				ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, retrieve, evaluate);
-				Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, "two-third-power", num);
-				/*
-				PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
+				ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, bound, retrieve, evaluate);
+				printBoundAccuracy(pw, rho, "sizesKnown", bound, sizes, retrieve, evaluate, positive, negative, positiveSamples, 
+						negativeSamples, alpha, beta, retrieveCost, evaluateCost, iterations);
+			}
+			Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
+			Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
+			Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, "two-third-power", 0.5);
+			PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
+			for (ConcentrationBound bound : ConcentrationBound.values()) {
+				Map<String, Double> retrieve = new HashMap<String, Double>();
+				Map<String, Double> evaluate = new HashMap<String, Double>();
 				try {
-					ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, retrieve, evaluate);
+					ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, 
+							bound, retrieveCost, evaluateCost, retrieve, evaluate);
 				} catch (Exception e) {
-					PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
-					iter--;
+					pw.println(rho + "\terrorsInSizes\t" + bound + "\tinfeasible");
 					continue;
 				}
-				*/
-				Map<String, Double> avgstats = PerformanceAnalysis.precisionRecallThresholdFraction(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, alpha, beta, 10);
-				precision += avgstats.get("precision");
-				recall += avgstats.get("recall");
-				PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
+				printBoundAccuracy(pw, rho, "errorsInSizes", bound, sizes, retrieve, evaluate, positive, negative, positiveSamples, 
+						negativeSamples, alpha, beta, retrieveCost, evaluateCost, iterations);
+			}
+			PerformanceAnalysis.unsample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
+			out.println("done with "+rho);
+		}
+		pw.close();
+	}
+	
+	private static void printBoundAccuracy (PrintWriter pw, Double rho, String solver, ConcentrationBound bound, 
+			Map<String, Double> sizes, Map<String, Double> retrieve, Map<String, Double> evaluate, Map<String, Integer> positive, 
+			Map<String, Integer> negative, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, 
+			Double alpha, Double beta, Double retrieveCost, Double evaluateCost, Integer iterations) {
+		Map<String, Double> fractions = PerformanceAnalysis.precisionRecallThresholdFraction(sizes, retrieve, evaluate, positive, 
+				negative, positiveSamples, negativeSamples, alpha, beta, iterations);
+		Double cost = retrieveCost * PerformanceAnalysis.retrieveCost(sizes, retrieve) + 
+				evaluateCost * PerformanceAnalysis.evaluateCost(sizes, evaluate);
+		final boolean meetsRho = fractions.get("precision") >= rho && fractions.get("recall") >= rho;
+		pw.println(rho + "\t" + solver + "\t" + bound + "\t" + cost + "\t" + fractions.get("precision") + "\t" + 
+				fractions.get("recall") + "\t" + meetsRho);
+	}
+	
+	/**
+	 * Compares executing sizesKnownEvaluate plans by independent coin flips ("bernoulli") and by exact per group 
+	 * quotas ("quota"), each planned with the matching variance, for rho from 0.5 to 0.9. Prints the expected 
+	 * retrieves and evaluates, and the fractions of iterations runs (of that execution) meeting alpha and beta.
+	 */
+	public static void executionComparison (Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Integer iterations) throws IOException {
+		Map<String, Integer> positive = new HashMap<String, Integer>();
+		Map<String, Integer> negative = new HashMap<String, Integer>();
+		for (String key : sizes.keySet()) {
+			positive.put(key, (int) Math.round(sizes.get(key) * selectivities.get(key)));
+			negative.put(key, (int) Math.round(sizes.get(key) * (1 - selectivities.get(key))));
+		}
+		final Map<String, Integer> noSamples = new HashMap<String, Integer>();
+		PrintWriter pw = new PrintWriter(new FileWriter("Cost_execution"));
+		pw.println("rho\texecution\tretrieves\tevaluates\tprecision\trecall");
+		for (Double rho = 0.5; rho < 0.95; rho += 0.1) {
+			for (String execution : new String[] {"bernoulli", "quota"}) {
+				Map<String, Double> retrieve = new HashMap<String, Double>();
+				Map<String, Double> evaluate = new HashMap<String, Double>();
+				ProbabilisticSolvers.sizesKnownEvaluate(sizes, selectivities, alpha, beta, rho, ConcentrationBound.HOEFFDING, 
+						execution, retrieve, evaluate);
+				Map<String, Double> fractions = PerformanceAnalysis.precisionRecallThresholdFraction(sizes, retrieve, evaluate, 
+						positive, negative, noSamples, noSamples, alpha, beta, iterations, execution);
+				pw.println(rho + "\t" + execution + "\t" + PerformanceAnalysis.retrieveCost(sizes, retrieve) + "\t" + 
+						PerformanceAnalysis.evaluateCost(sizes, evaluate) + "\t" + fractions.get("precision") + "\t" + 
+						fractions.get("recall"));
 			}
-			pw.println(rho + "\t" + precision/numIters + '\t' + recall/numIters);
 			out.println("done with "+rho);
 		}
 		pw.close();
 	}
 	
+	/**
+	 * Total cost (sampling included) of choosing the sample sizes with jointSamplingEvaluate, for comparison with 
+	 * the fixed sampling schemes of samplingCost. Each iteration samples pilot tuples per group, lets 
+	 * jointSamplingEvaluate pick the remaining sample sizes, samples them, and plans the rest with 
+	 * errorsInSizesEvaluate, both with bound. Prints the mean tuples sampled, expected retrieves and evaluates, 
+	 * and the fraction of iterations meeting both alpha and beta.
+	 */
+	public static void jointSamplingCost (Map<String, Double> sizes, Map<String, Double> selectivities, Double alpha, 
+			Double beta, Double rho, Double retrieveCost, Double evaluateCost, Integer pilot, ConcentrationBound bound,
+			Integer numIters) throws IOException {
+		Map<String, Integer> positive = new HashMap<String, Integer>();
+		Map<String, Integer> negative = new HashMap<String, Integer>();
+		for (String key : sizes.keySet()) {
+			positive.put(key, (int) Math.round(sizes.get(key) * selectivities.get(key)));
+			negative.put(key, (int) Math.round(sizes.get(key) * (1 - selectivities.get(key))));
+		}
+		PrintWriter pw = new PrintWriter(new FileWriter("Cost_joint"));
+		pw.println("pilot\tsampled\tretrieves\tevaluates\tsuccess");
+		Double sampled = 0.0;
+		Double retrieves = 0.0;
+		Double evaluates = 0.0;
+		Double successes = 0.0;
+		for (Integer iter = 0; iter < numIters; iter++) {
+			Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
+			Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
+			Map<String, Double> retrieve = new HashMap<String, Double>();
+			Map<String, Double> evaluate = new HashMap<String, Double>();
+			Map<String, Integer> samples = new HashMap<String, Integer>();
+			Map<String, Integer> totalSamples = PerformanceAnalysis.generateSampleSizes(sizes, positiveSamples, negativeSamples, "constant", pilot);
+			PerformanceAnalysis.sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples);
+			try {
+				ProbabilisticSolvers.jointSamplingEvaluate(sizes, positiveSamples, negativeSamples, alpha, beta, rho, bound, 
+						"bernoulli", retrieveCost, evaluateCost, retrieve, evaluate, samples);
+				PerformanceAnalysis.sample(sizes, positive, negative, samples, positiveSamples, negativeSamples);
+				ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, null, positiveSamples, negativeSamples, alpha, beta, rho, 
+						bound, retrieveCost, evaluateCost, retrieve, evaluate);
+			} catch (Exception e) {
+				PerformanceAnalysis.unsample(sizes, positive, negative, null, positiveSamples, negativeSamples);
+				iter--;
+				continue;
+			}
+			Map<String, Double> stats = PerformanceAnalysis.findStats(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples);
+			for (String key : positiveSamples.keySet()) {
+				sampled += positiveSamples.get(key) + negativeSamples.get(key);
+			}
+			retrieves += stats.get("expectedRetrieves");
+			evaluates += stats.get("expectedEvaluates");
+			if (stats.get("precision") >= alpha && stats.get("recall") >= beta) {
+				successes++;
+			}
+			PerformanceAnalysis.unsample(sizes, positive, negative, null, positiveSamples, negativeSamples);
+		}
+		pw.println(pilot + "\t" + sampled/numIters + "\t" + retrieves/numIters + '\t' + evaluates/numIters + '\t' + successes/numIters);
+		out.println(pilot + "\t" + sampled/numIters + "\t" + retrieves/numIters + '\t' + evaluates/numIters + '\t' + successes/numIters);
+		pw.close();
+	}
+	
+	/**
+	 * Whether bootstrap variances (LogisticRegressionSolvers.bootstrapGroupVariances) keep errorsInSizesEvaluate 
+	 * plans on logistic regression score groups from missing their constraints. Each iteration trains on a new 
+	 * random trainFraction of inputFile, keeps the training tuples as the groups' samples, and plans with the 
+	 * binomial variances of the constraint functions and with the bootstrap variances. Prints, for each, the mean
+	 * expected retrieves and evaluates and the mean fractions of runs meeting alpha and beta.
+	 */
+	public static void bootstrapVarianceComparison (String inputFile, Integer target, Double trainFraction, Double alpha, 
+			Double beta, Double rho, Double retrieveCost, Double evaluateCost, Integer numIters) throws Exception {
+		final int numClasses = 10;
+		final int runs = 100;
+		final String[] estimators = {"binomial", "bootstrap"};
+		double[][] totals = new double[estimators.length][4];
+		Random random = RandomStreams.newStream();
+		for (Integer iter = 0; iter < numIters; iter++) {
+			ScoreColumn scores = LogisticRegressionSolvers.logisticRegressionScores(inputFile, target, trainFraction, 
+					random.nextLong(), QuantileSketch.DEFAULTERROR);
+			Map<String, Double> sizes = new HashMap<String, Double>();
+			Map<String, Double> selectivities = new HashMap<String, Double>();
+			Map<String, Integer> positiveSamples = new HashMap<String, Integer>();
+			Map<String, Integer> negativeSamples = new HashMap<String, Integer>();
+			LogisticRegressionSolvers.logisticRegressionGroups(scores, sizes, selectivities, positiveSamples, negativeSamples, numClasses, "bucket-size");
+			Map<String, Integer> positive = new HashMap<String, Integer>();
+			Map<String, Integer> negative = new HashMap<String, Integer>();
+			for (String key : sizes.keySet()) {
+				positive.put(key, (int) Math.round(sizes.get(key) * selectivities.get(key)));
+				negative.put(key, (int) Math.round(sizes.get(key) * (1 - selectivities.get(key))));
+			}
+			for (int e = 0; e < estimators.length; e++) {
+				final Map<String, Double> variances = estimators[e].equals("bootstrap") 
+						? LogisticRegressionSolvers.bootstrapGroupVariances(scores, numClasses, BootstrapVariance.DEFAULTREPLICATES, random.nextLong())
+						: null;
+				Map<String, Double> retrieve = new HashMap<String, Double>();
+				Map<String, Double> evaluate = new HashMap<String, Double>();
+				ProbabilisticSolvers.errorsInSizesEvaluate(sizes, null, variances, positiveSamples, negativeSamples, alpha, beta, rho, retrieveCost, evaluateCost, retrieve, evaluate);
+				Map<String, Double> fractions = PerformanceAnalysis.precisionRecallThresholdFraction(sizes, retrieve, evaluate, 
+						positive, negative, positiveSamples, negativeSamples, alpha, beta, runs);
+				totals[e][0] += PerformanceAnalysis.retrieveCost(sizes, retrieve);
+				totals[e][1] += PerformanceAnalysis.evaluateCost(sizes, evaluate);
+				totals[e][2] += fractions.get("precision");
+				totals[e][3] += fractions.get("recall");
+			}
+			out.println("done with "+iter);
+		}
+		PrintWriter pw = new PrintWriter(new FileWriter("Cost_bootstrap"+trainFraction));
+		pw.println("variances\tretrieves\tevaluates\tprecision\trecall");
+		for (int e = 0; e < estimators.length; e++) {
+			pw.println(estimators[e] + "\t" + totals[e][0]/numIters + "\t" + totals[e][1]/numIters + "\t" 
+					+ totals[e][2]/numIters + "\t" + totals[e][3]/numIters);
+		}
+		pw.close();
+	}
+	
 	public static void main(String[] args) {
 		// TODO Auto-generated method stub
 
@@ -0,0 +1,133 @@
+package utils;
+
+import java.util.Random;
+
+/**
+ * Runs a randomized trial (e.g. sample, plan, execute) repeatedly and averages its statistics, with less noise per
+ * iteration than independent unseeded runs:
+ * Common random numbers: iteration i always draws from stream(seed, i), so configurations run with the same seed
+ * (e.g. the cells of one curve) see the same samples, and differences between them aren't swamped by sampling noise.
+ * Antithetic pairs: if antithetic, iterations come in pairs drawing from the same stream, the second with every
+ * uniform u replaced by 1 - u (AntitheticRandom). The pair's mean counts as one observation.
+ * Sequential stopping: after minIterations observations, iterations stop once the confidence interval on the mean
+ * of statistic is narrower than relativeWidth times the mean, or after maxIterations observations.
+ * A trial that throws (e.g. an infeasible plan) is retried with the next stream, like the experiments' iter-- loops,
+ * up to maxIterations times in a row.
+ */
+public class MonteCarlo {
+	public final static double DEFAULTCONFIDENCE = 0.95;
+
+	public interface Trial {
+		/**
+		 * Runs the trial with all its randomness drawn from random, and returns its statistics. Must leave any
+		 * shared state as it found it.
+		 */
+		double[] run (Random random) throws Exception;
+	}
+
+	/**
+	 * Means of the statistics of a trial, the half width of the confidence interval on the mean of the stopping
+	 * statistic, and the number of observations (antithetic pairs count once) they are from.
+	 */
+	public static class Estimate {
+		public final double[] mean;
+		public final double halfWidth;
+		public final int observations;
+
+		Estimate (double[] mean, double halfWidth, int observations) {
+			this.mean = mean;
+			this.halfWidth = halfWidth;
+			this.observations = observations;
+		}
+	}
+
+	/**
+	 * A stream whose every output is the complement of that of the stream with the same seed, if antithetic. So
+	 * nextDouble gives 1 - u - 2^-53 for the other's u, and nextInt(n) (exactly for powers of 2) n - 1 - the other's.
+	 */
+	public static class AntitheticRandom extends RandomStreams.SplitMixRandom {
+		private static final long serialVersionUID = 1L;
+		private final boolean antithetic;
+
+		public AntitheticRandom (long seed, boolean antithetic) {
+			super(seed);
+			this.antithetic = antithetic;
+		}
+
+		@Override
+		public long nextLong () {
+			final long value = super.nextLong();
+			return antithetic ? ~value : value;
+		}
+	}
+
+	private final long seed;
+	private final boolean antithetic;
+	private final double relativeWidth;
+	private final int minIterations;
+	private final int maxIterations;
+	private final double z;
+
+	public MonteCarlo (long seed, boolean antithetic, double relativeWidth, int minIterations, int maxIterations) {
+		this(seed, antithetic, relativeWidth, minIterations, maxIterations, DEFAULTCONFIDENCE);
+	}
+
+	public MonteCarlo (long seed, boolean antithetic, double relativeWidth, int minIterations, int maxIterations,
+			double confidence) {
+		this.seed = seed;
+		this.antithetic = antithetic;
+		this.relativeWidth = relativeWidth;
+		this.minIterations = Math.max(2, minIterations);
+		this.maxIterations = Math.max(this.minIterations, maxIterations);
+		this.z = PlanEvaluator.normalQuantile(1 - (1 - confidence) / 2);
+	}
+
+	public Estimate estimate (Trial trial, int statistic) throws Exception {
+		double[] mean = null;
+		double squares = 0.0; // Sum of squared deviations of the stopping statistic (Welford).
+		int observations = 0;
+		int failures = 0;
+		double halfWidth = Double.MAX_VALUE;
+		for (long index = 0; observations < maxIterations; index++) {
+			double[] observation;
+			try {
+				observation = trial.run(stream(index, false));
+				if (antithetic) {
+					final double[] other = trial.run(stream(index, true));
+					for (int i = 0; i < observation.length; i++) {
+						observation[i] = (observation[i] + other[i]) / 2;
+					}
+				}
+			} catch (Exception e) {
+				if (++failures >= maxIterations) {
+					throw e;
+				}
+				continue;
+			}
+			failures = 0;
+			observations++;
+			if (mean == null) {
+				mean = new double[observation.length];
+			}
+			final double delta = observation[statistic] - mean[statistic];
+			for (int i = 0; i < observation.length; i++) {
+				mean[i] += (observation[i] - mean[i]) / observations;
+			}
+			squares += delta * (observation[statistic] - mean[statistic]);
+			if (observations >= minIterations) {
+				halfWidth = z * Math.sqrt(squares / (observations - 1) / observations);
+				if (2 * halfWidth <= relativeWidth * Math.abs(mean[statistic])) {
+					break;
+				}
+			}
+		}
+		return new Estimate(mean, halfWidth, observations);
+	}
+
+	/**
+	 * The stream of iteration index, the same for every MonteCarlo with this seed.
+	 */
+	public Random stream (long index, boolean antithetic) {
+		return new AntitheticRandom(RandomStreams.stream(seed, index).nextLong(), antithetic);
+	}
+}
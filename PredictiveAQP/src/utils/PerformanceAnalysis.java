@@ -85,7 +85,15 @@ public class PerformanceAnalysis {
 	 */
 	public static void sample (Map<String, Double> sizes, Map<String, Integer> positive, Map<String, Integer> negative,
 			Map<String, Integer> totalSamples, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
-		Random r = new Random();
+		sample(sizes, positive, negative, totalSamples, positiveSamples, negativeSamples, RandomStreams.newStream());
+	}
+	
+	/**
+	 * Like sample above, drawing the samples from r (e.g. a MonteCarlo stream, so runs can share their samples).
+	 */
+	public static void sample (Map<String, Double> sizes, Map<String, Integer> positive, Map<String, Integer> negative,
+			Map<String, Integer> totalSamples, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples,
+			Random r) {
 		for (String key : totalSamples.keySet()) {
 			if (!positiveSamples.containsKey(key)) {
 				positiveSamples.put(key, 0);
@@ -153,6 +161,32 @@ public class PerformanceAnalysis {
 	 */
 	public static Map<String, Double> findStats (Map<String, Double> sizes, Map<String, Double> retrieve, Map<String, Double> evaluate,
 			Map<String, Integer> positive, Map<String, Integer> negative, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples) {
+		return findStats(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, "bernoulli");
+	}
+	
+	/**
+	 * Like findStats above, with the plan executed as execution:
+	 * bernoulli: each tuple of group a is retrieved with probability r_a, and evaluated with probability e_a, 
+	 * independently (as findStats above).
+	 * quota: group a retrieves exactly round(r_a t_a) of its t_a tuples, drawn without replacement, and evaluates
+	 * exactly round(e_a t_a) of those. The numbers of positives drawn are then hypergeometric rather than binomial,
+	 * and the numbers retrieved and evaluated don't vary at all.
+	 */
+	public static Map<String, Double> findStats (Map<String, Double> sizes, Map<String, Double> retrieve, Map<String, Double> evaluate,
+			Map<String, Integer> positive, Map<String, Integer> negative, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples,
+			String execution) {
+		return findStats(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, execution, RandomStreams.newStream());
+	}
+	
+	/**
+	 * Like findStats above, executing the plan with the draws of r.
+	 */
+	public static Map<String, Double> findStats (Map<String, Double> sizes, Map<String, Double> retrieve, Map<String, Double> evaluate,
+			Map<String, Integer> positive, Map<String, Integer> negative, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples,
+			String execution, Random r) {
+		if (!execution.equals("bernoulli") && !execution.equals("quota")) {
+			throw new IllegalArgumentException("execution parameter not recognized");
+		}
 		Map<String, Double> statsMap = new HashMap<String, Double>();
 		Integer retrieves = 0;
 		Integer evaluates = 0;
@@ -162,11 +196,8 @@ public class PerformanceAnalysis {
 		Integer trueNegatives = 0;
 		Double  expectedRetrieves = 0.0;
 		Double  expectedEvaluates = 0.0;
-		Random r = new Random();
 		
 		for (String key : sizes.keySet()) {
-			expectedRetrieves += sizes.get(key) * retrieve.get(key);
-			expectedEvaluates += sizes.get(key) * evaluate.get(key);
 			if (positiveSamples.containsKey(key)) {
 				expectedRetrieves += positiveSamples.get(key) + negativeSamples.get(key);
 				expectedEvaluates += positiveSamples.get(key) + negativeSamples.get(key);
@@ -176,8 +207,26 @@ public class PerformanceAnalysis {
 			final double evaluateProb = evaluate.get(key);
 			final double positives = positive.get(key);
 			final double negatives = negative.get(key);
+			if (execution.equals("quota")) {
+				final int total = positive.get(key) + negative.get(key);
+				final int toRetrieve = (int) Math.round(retrieveProb * total);
+				final int toEvaluate = Math.min(toRetrieve, (int) Math.round(evaluateProb * total));
+				final int retrievedPositives = hypergeometric(r, total, positive.get(key), toRetrieve);
+				final int evaluatedPositives = hypergeometric(r, toRetrieve, retrievedPositives, toEvaluate);
+				expectedRetrieves += toRetrieve;
+				expectedEvaluates += toEvaluate;
+				retrieves += toRetrieve;
+				evaluates += toEvaluate;
+				truePositives += retrievedPositives;
+				falseNegatives += positive.get(key) - retrievedPositives;
+				falsePositives += toRetrieve - retrievedPositives - (toEvaluate - evaluatedPositives);
+				trueNegatives += negative.get(key) - (toRetrieve - retrievedPositives) + (toEvaluate - evaluatedPositives);
+			} else {
+				expectedRetrieves += sizes.get(key) * retrieveProb;
+				expectedEvaluates += sizes.get(key) * evaluateProb;
+			}
 			Double rand;
-			for (int i = 0; i < positives; i++) {
+			for (int i = 0; execution.equals("bernoulli") && i < positives; i++) {
 				rand = r.nextDouble();
 				if (rand > retrieveProb) {
 					falseNegatives++;
@@ -190,7 +239,7 @@ public class PerformanceAnalysis {
 					retrieves++;
 				}
 			}
-			for (int i = 0; i < negatives; i++) {
+			for (int i = 0; execution.equals("bernoulli") && i < negatives; i++) {
 				rand = r.nextDouble();
 				if (rand > retrieveProb) {
 					trueNegatives++;
@@ -223,14 +272,28 @@ public class PerformanceAnalysis {
 		return statsMap;
 	}
 	
+	/**
+	 * Fractions of iterations runs of findStats in which precision >= alpha and recall >= beta. 
+	 * PlanEvaluator.precisionRecallProbabilities computes the probabilities these fractions estimate.
+	 */
 	public static Map<String, Double> precisionRecallThresholdFraction (Map<String, Double> sizes, Map<String, Double> retrieve, Map<String, Double> evaluate,
 			Map<String, Integer> positive, Map<String, Integer> negative, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, 
 			Double alpha, Double beta, Integer iterations) {
+		return precisionRecallThresholdFraction(sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, 
+				alpha, beta, iterations, "bernoulli");
+	}
+	
+	/**
+	 * Like precisionRecallThresholdFraction above, with the plan executed as execution (see findStats).
+	 */
+	public static Map<String, Double> precisionRecallThresholdFraction (Map<String, Double> sizes, Map<String, Double> retrieve, Map<String, Double> evaluate,
+			Map<String, Integer> positive, Map<String, Integer> negative, Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, 
+			Double alpha, Double beta, Integer iterations, String execution) {
 		int precisionCount = 0;
 		int recallCount = 0;
 		Map<String, Double> avgStats = new HashMap<String, Double>();
 		for (int i=0; i < iterations; i++) {
-			Map<String, Double> stats= findStats (sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples);
+			Map<String, Double> stats= findStats (sizes, retrieve, evaluate, positive, negative, positiveSamples, negativeSamples, execution);
 			if (stats.get("recall") >= beta) {
 				recallCount++;
 			}
@@ -243,6 +306,20 @@ public class PerformanceAnalysis {
 		return avgStats;
 	}
 	
+	/**
+	 * Number of successes in draws from a population with successes successes, drawn one at a time without 
+	 * replacement (as sample does).
+	 */
+	private static int hypergeometric (Random r, int population, int successes, int draws) {
+		int drawn = 0;
+		for (int i = 0; i < draws && drawn < successes; i++) {
+			if (r.nextInt(population - i) < successes - drawn) {
+				drawn++;
+			}
+		}
+		return drawn;
+	}
+	
 	/**
 	 * @param sizes 			Maps tuple class to number of tuples.
 	 * @param evaluate			Maps to the evaluation probability of tuple class.
@@ -0,0 +1,330 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes, instead of simulating, the probabilities that a retrieve/evaluate plan meets its precision and recall
+ * thresholds, for known positive and negative counts per group (the setting of
+ * PerformanceAnalysis.precisionRecallThresholdFraction). A positive tuple of group a is retrieved (a true positive)
+ * with probability r_a, and a negative tuple is retrieved without being evaluated (a false positive) with probability
+ * r_a - e_a, independently. So the number X of true positives among the unsampled tuples and the number Y of false
+ * positives are independent sums of binomials (Poisson-binomials), and sampled tuples are always true positives or
+ * true negatives. With S sampled positives and P unsampled positives:
+ * recall >= beta iff X >= beta * (S + P) - S, and precision >= alpha iff Y <= (1 - alpha) / alpha * (S + X).
+ * mode parameter :
+ * normal: approximates X and Y by normals (with a continuity correction for recall). Constant time per group.
+ * exact: computes the distributions of X and Y by convolving the binomials of the groups (by FFT for long
+ * supports), and P(precision >= alpha) = sum over x of P(X = x) P(Y <= (1 - alpha) / alpha * (S + x)).
+ * Binomial tails below TAILPROBABILITY are dropped, so "exact" is exact up to about that much mass.
+ */
+public class PlanEvaluator {
+	public final static double TAILPROBABILITY = 1e-15;
+	public final static int NAIVECONVOLUTIONLIMIT = 1 << 16; // Longer convolutions (product of lengths) use the FFT.
+
+	/**
+	 * Maps "precision" to P(precision >= alpha) and "recall" to P(recall >= beta), like
+	 * precisionRecallThresholdFraction with infinitely many iterations. positiveSamples and negativeSamples may be
+	 * empty (nothing sampled).
+	 */
+	public static Map<String, Double> precisionRecallProbabilities (Map<String, Double> sizes, Map<String, Double> retrieve,
+			Map<String, Double> evaluate, Map<String, Integer> positive, Map<String, Integer> negative,
+			Map<String, Integer> positiveSamples, Map<String, Integer> negativeSamples, Double alpha, Double beta, String mode) {
+		if (!mode.equals("normal") && !mode.equals("exact")) {
+			throw new IllegalArgumentException("mode parameter not recognized");
+		}
+		double sampledPositives = 0.0;
+		double unsampledPositives = 0.0;
+		for (String key : sizes.keySet()) {
+			unsampledPositives += positive.get(key);
+			if (positiveSamples.containsKey(key)) {
+				sampledPositives += positiveSamples.get(key);
+			}
+		}
+		// Smallest number of unsampled true positives that meets the recall threshold.
+		final double recallThreshold = Math.ceil(beta * (sampledPositives + unsampledPositives) - sampledPositives - 1e-9);
+		final double ratio = (1 - alpha) / alpha;
+
+		Map<String, Double> probabilities = new HashMap<String, Double>();
+		if (mode.equals("normal")) {
+			double meanX = 0.0;
+			double varX = 0.0;
+			double meanY = 0.0;
+			double varY = 0.0;
+			for (String key : sizes.keySet()) {
+				final double r = retrieve.get(key);
+				final double q = falsePositiveProbability(retrieve.get(key), evaluate.get(key));
+				meanX += positive.get(key) * r;
+				varX += positive.get(key) * r * (1 - r);
+				meanY += negative.get(key) * q;
+				varY += negative.get(key) * q * (1 - q);
+			}
+			probabilities.put("recall", normalTail(recallThreshold - 0.5, meanX, varX));
+			// precision >= alpha iff Z = ratio * (S + X) - Y >= 0.
+			probabilities.put("precision", normalTail(0.0, ratio * (sampledPositives + meanX) - meanY,
+					ratio * ratio * varX + varY));
+			return probabilities;
+		}
+
+		Pmf x = Pmf.pointMass(0);
+		Pmf y = Pmf.pointMass(0);
+		for (String key : sizes.keySet()) {
+			x = x.convolve(Pmf.binomial(positive.get(key), retrieve.get(key)));
+			y = y.convolve(Pmf.binomial(negative.get(key), falsePositiveProbability(retrieve.get(key), evaluate.get(key))));
+		}
+		final double[] yCdf = y.cumulative();
+		double recall = 0.0;
+		double precision = 0.0;
+		for (int i = 0; i < x.p.length; i++) {
+			final int tp = x.offset + i;
+			if (tp >= recallThreshold) {
+				recall += x.p[i];
+			}
+			if (sampledPositives + tp > 0) { // 0 / 0 precision counts as a miss, as in findStats.
+				final int j = (int) Math.min(Math.floor(ratio * (sampledPositives + tp) + 1e-9) - y.offset, yCdf.length - 1);
+				if (j >= 0) {
+					precision += x.p[i] * yCdf[j];
+				}
+			}
+		}
+		probabilities.put("recall", Math.min(1.0, recall));
+		probabilities.put("precision", Math.min(1.0, precision));
+		return probabilities;
+	}
+
+	private static double falsePositiveProbability (double retrieve, double evaluate) {
+		return Math.min(1.0, Math.max(0.0, retrieve - evaluate));
+	}
+
+	/**
+	 * P(N >= threshold) for N normal with the given mean and variance (a point mass if the variance is 0).
+	 */
+	private static double normalTail (double threshold, double mean, double variance) {
+		if (variance <= 0) {
+			return mean >= threshold ? 1.0 : 0.0;
+		}
+		return 1 - normalCdf((threshold - mean) / Math.sqrt(variance));
+	}
+
+	/**
+	 * Standard normal cdf, via the complementary error function (relative error below 1.2e-7).
+	 */
+	public static double normalCdf (double z) {
+		return 0.5 * erfc(-z / Math.sqrt(2));
+	}
+
+	/**
+	 * Inverse of normalCdf, for 0 < p < 1 (Acklam's rational approximation, relative error below 1.2e-9).
+	 */
+	public static double normalQuantile (double p) {
+		if (p <= 0 || p >= 1) {
+			throw new IllegalArgumentException("p parameter must be in (0, 1)");
+		}
+		final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02, 1.383577518672690e+02,
+				-3.066479806614716e+01, 2.506628277459239e+00};
+		final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02, 6.680131188771972e+01,
+				-1.328068155288572e+01};
+		final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00, -2.549732539343734e+00,
+				4.374664141464968e+00, 2.938163982698783e+00};
+		final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00};
+		final double low = 0.02425;
+		if (p < low || p > 1 - low) {
+			final double q = Math.sqrt(-2 * Math.log(p < low ? p : 1 - p));
+			final double x = (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+					/ ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+			return p < low ? x : -x;
+		}
+		final double q = p - 0.5;
+		final double r = q * q;
+		return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+				/ (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+	}
+
+	private static double erfc (double x) {
+		final double z = Math.abs(x);
+		final double t = 1 / (1 + 0.5 * z);
+		final double ans = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+				+ t * (-0.82215223 + t * 0.17087277)))))))));
+		return x >= 0 ? ans : 2 - ans;
+	}
+
+	/**
+	 * log Gamma(x) for x > 0 (Lanczos approximation).
+	 */
+	static double logGamma (double x) {
+		final double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155,
+				0.1208650973866179e-2, -0.5395239384953e-5};
+		double y = x;
+		double tmp = x + 5.5;
+		tmp -= (x + 0.5) * Math.log(tmp);
+		double series = 1.000000000190015;
+		for (final double c : coefficients) {
+			series += c / ++y;
+		}
+		return -tmp + Math.log(2.5066282746310005 * series / x);
+	}
+
+	/**
+	 * Probability mass function on the integers offset, offset + 1, ..., offset + p.length - 1.
+	 */
+	static class Pmf {
+		final int offset;
+		final double[] p;
+
+		Pmf (int offset, double[] p) {
+			this.offset = offset;
+			this.p = p;
+		}
+
+		static Pmf pointMass (int k) {
+			return new Pmf(k, new double[] {1.0});
+		}
+
+		/**
+		 * Binomial(n, prob), without the tails beyond where the mass drops below TAILPROBABILITY of the mode's.
+		 */
+		static Pmf binomial (int n, double prob) {
+			if (n <= 0 || prob <= 0) {
+				return pointMass(0);
+			}
+			if (prob >= 1) {
+				return pointMass(n);
+			}
+			final int mode = (int) Math.min(n, Math.floor((n + 1) * prob));
+			final double logMode = logGamma(n + 1) - logGamma(mode + 1) - logGamma(n - mode + 1) + mode * Math.log(prob)
+					+ (n - mode) * Math.log(1 - prob);
+			final double odds = prob / (1 - prob);
+			// Walk out from the mode with the ratio P(k + 1) / P(k) = (n - k) / (k + 1) * odds.
+			int low = mode;
+			double value = 1.0;
+			while (low > 0 && value > TAILPROBABILITY) {
+				value *= low / ((n - low + 1) * odds);
+				low--;
+			}
+			int high = mode;
+			value = 1.0;
+			while (high < n && value > TAILPROBABILITY) {
+				value *= (n - high) / (high + 1.0) * odds;
+				high++;
+			}
+			double[] p = new double[high - low + 1];
+			final double scale = Math.exp(logMode);
+			p[mode - low] = scale;
+			for (int k = mode; k > low; k--) {
+				p[k - 1 - low] = p[k - low] * k / ((n - k + 1) * odds);
+			}
+			for (int k = mode; k < high; k++) {
+				p[k + 1 - low] = p[k - low] * (n - k) / (k + 1.0) * odds;
+			}
+			return new Pmf(low, p);
+		}
+
+		Pmf convolve (Pmf other) {
+			final double[] a = p;
+			final double[] b = other.p;
+			if (a.length == 1 || b.length == 1 || (long) a.length * b.length <= NAIVECONVOLUTIONLIMIT) {
+				double[] c = new double[a.length + b.length - 1];
+				for (int i = 0; i < a.length; i++) {
+					if (a[i] == 0) {
+						continue;
+					}
+					for (int j = 0; j < b.length; j++) {
+						c[i + j] += a[i] * b[j];
+					}
+				}
+				return new Pmf(offset + other.offset, c);
+			}
+			return new Pmf(offset + other.offset, fftConvolve(a, b));
+		}
+
+		double[] cumulative () {
+			double[] cdf = new double[p.length];
+			double sum = 0.0;
+			for (int i = 0; i < p.length; i++) {
+				sum += p[i];
+				cdf[i] = sum;
+			}
+			return cdf;
+		}
+	}
+
+	/**
+	 * Convolution of a and b by a radix 2 FFT. Round off can make tiny entries slightly negative; they are set to 0.
+	 */
+	static double[] fftConvolve (double[] a, double[] b) {
+		final int length = a.length + b.length - 1;
+		int n = 1;
+		while (n < length) {
+			n <<= 1;
+		}
+		double[] re = new double[n];
+		double[] im = new double[n];
+		// Pack a into the real part and b into the imaginary part, and separate their transforms afterwards.
+		System.arraycopy(a, 0, re, 0, a.length);
+		System.arraycopy(b, 0, im, 0, b.length);
+		fft(re, im, false);
+		double[] productRe = new double[n];
+		double[] productIm = new double[n];
+		for (int k = 0; k < n; k++) {
+			final int m = (n - k) & (n - 1);
+			// A_k = (Z_k + conj(Z_m)) / 2, B_k = (Z_k - conj(Z_m)) / (2i).
+			final double aRe = (re[k] + re[m]) / 2;
+			final double aIm = (im[k] - im[m]) / 2;
+			final double bRe = (im[k] + im[m]) / 2;
+			final double bIm = (re[m] - re[k]) / 2;
+			productRe[k] = aRe * bRe - aIm * bIm;
+			productIm[k] = aRe * bIm + aIm * bRe;
+		}
+		fft(productRe, productIm, true);
+		double[] c = new double[length];
+		for (int i = 0; i < length; i++) {
+			c[i] = Math.max(0.0, productRe[i] / n);
+		}
+		return c;
+	}
+
+	/**
+	 * In place iterative FFT of (re, im), whose length is a power of 2. The inverse transform is not scaled by 1/n.
+	 */
+	private static void fft (double[] re, double[] im, boolean inverse) {
+		final int n = re.length;
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for (int length = 2; length <= n; length <<= 1) {
+			final double angle = 2 * Math.PI / length * (inverse ? 1 : -1);
+			final double wRe = Math.cos(angle);
+			final double wIm = Math.sin(angle);
+			for (int start = 0; start < n; start += length) {
+				double uRe = 1.0;
+				double uIm = 0.0;
+				for (int k = 0; k < length / 2; k++) {
+					final int i = start + k;
+					final int j = i + length / 2;
+					final double tRe = re[j] * uRe - im[j] * uIm;
+					final double tIm = re[j] * uIm + im[j] * uRe;
+					re[j] = re[i] - tRe;
+					im[j] = im[i] - tIm;
+					re[i] += tRe;
+					im[i] += tIm;
+					final double nextRe = uRe * wRe - uIm * wIm;
+					uIm = uRe * wIm + uIm * wRe;
+					uRe = nextRe;
+				}
+			}
+		}
+	}
+}
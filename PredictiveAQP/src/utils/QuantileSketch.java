@@ -0,0 +1,234 @@
+package utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Mergeable streaming quantile sketch (KLL). Values are kept in a stack of compactors: level h holds values of
+ * weight 2^h, and a full level is sorted and every other value (random offset) is promoted to the level above. The
+ * memory used is O(k) regardless of how many values are added, and the rank error of a quantile is about epsilon
+ * times the number of values. Sketches built on disjoint chunks (e.g. by parallel scoring threads) can be merged.
+ */
+public class QuantileSketch implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final static double DEFAULTERROR = 0.001;
+	final static double CAPACITYDECAY = 2.0 / 3;
+
+	final int k;
+	final Random random;
+	double[][] levels;
+	int[] sizes;
+	long count;
+	double min;
+	double max;
+
+	/**
+	 * A sketch whose normalized rank error is about epsilon.
+	 */
+	public QuantileSketch (double epsilon) {
+		this(epsilon, RandomStreams.newStream());
+	}
+
+	public QuantileSketch (double epsilon, Random random) {
+		this(kForError(epsilon), random);
+	}
+
+	private QuantileSketch (int k, Random random) {
+		this.k = k;
+		this.random = random;
+		levels = new double[][] {new double[capacity(0, 1)]};
+		sizes = new int[1];
+		count = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	private static int kForError (double epsilon) {
+		if (epsilon <= 0 || epsilon >= 1) {
+			throw new IllegalArgumentException("epsilon must be in (0, 1)");
+		}
+		return Math.max(8, (int) Math.ceil(2.7 / epsilon));
+	}
+
+	/**
+	 * numChunks empty sketches with the same error as this one, e.g. for the chunks of a parallel pass, to be merged
+	 * back in chunk order. Chunk c draws from RandomStreams.stream(seed, c), for one seed drawn from this sketch now,
+	 * so what is merged back doesn't depend on which threads ran the chunks or when.
+	 */
+	public QuantileSketch[] emptyCopies (int numChunks) {
+		final long seed = random.nextLong();
+		QuantileSketch[] copies = new QuantileSketch[numChunks];
+		for (int c = 0; c < numChunks; c++) {
+			copies[c] = new QuantileSketch(k, RandomStreams.stream(seed, c));
+		}
+		return copies;
+	}
+
+	/**
+	 * Capacity of level h when there are numLevels levels. Lower levels are smaller.
+	 */
+	private int capacity (int h, int numLevels) {
+		return Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITYDECAY, numLevels - 1 - h)));
+	}
+
+	private int totalCapacity () {
+		int total = 0;
+		for (int h = 0; h < levels.length; h++) {
+			total += capacity(h, levels.length);
+		}
+		return total;
+	}
+
+	private int totalSize () {
+		int total = 0;
+		for (int h = 0; h < levels.length; h++) {
+			total += sizes[h];
+		}
+		return total;
+	}
+
+	public long count () {
+		return count;
+	}
+
+	public void add (double x) {
+		append(0, x);
+		count++;
+		min = Math.min(min, x);
+		max = Math.max(max, x);
+		if (sizes[0] >= capacity(0, levels.length)) {
+			compress();
+		}
+	}
+
+	private void append (int h, double x) {
+		while (h >= levels.length) {
+			final int numLevels = levels.length;
+			levels = Arrays.copyOf(levels, numLevels + 1);
+			sizes = Arrays.copyOf(sizes, numLevels + 1);
+			levels[numLevels] = new double[capacity(numLevels, numLevels + 1)];
+		}
+		if (sizes[h] == levels[h].length) {
+			levels[h] = Arrays.copyOf(levels[h], 2 * levels[h].length);
+		}
+		levels[h][sizes[h]++] = x;
+	}
+
+	/**
+	 * Compacts the lowest full levels until the sketch is within its total capacity.
+	 */
+	private void compress () {
+		while (totalSize() >= totalCapacity()) {
+			int h = 0;
+			while (h < levels.length && sizes[h] < capacity(h, levels.length)) {
+				h++;
+			}
+			if (h == levels.length) {
+				return;
+			}
+			compact(h);
+		}
+	}
+
+	/**
+	 * Sorts level h, promotes every other value to level h+1, and keeps the odd one out (if any) at level h.
+	 */
+	private void compact (int h) {
+		final double[] level = levels[h];
+		int size = sizes[h];
+		Arrays.sort(level, 0, size);
+		double leftover = 0.0;
+		final boolean odd = size % 2 == 1;
+		if (odd) {
+			leftover = level[size - 1];
+			size--;
+		}
+		final int offset = random.nextBoolean() ? 1 : 0;
+		for (int i = offset; i < size; i += 2) {
+			append(h + 1, level[i]);
+		}
+		sizes[h] = 0;
+		if (odd) {
+			levels[h][sizes[h]++] = leftover;
+		}
+	}
+
+	/**
+	 * Adds all values of other into this sketch. other is not modified.
+	 */
+	public synchronized void merge (QuantileSketch other) {
+		for (int h = 0; h < other.levels.length; h++) {
+			for (int i = 0; i < other.sizes[h]; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		compress();
+	}
+
+	/**
+	 * Approximate fraction-quantile: the smallest kept value whose cumulative weight exceeds fraction * count.
+	 */
+	public double quantile (double fraction) {
+		return quantiles(new double[] {fraction})[0];
+	}
+
+	/**
+	 * Like quantile, for several fractions at once.
+	 */
+	public double[] quantiles (double[] fractions) {
+		if (count == 0) {
+			throw new IllegalStateException("Empty sketch");
+		}
+		final int n = totalSize();
+		double[] values = new double[n];
+		long[] weights = new long[n];
+		Integer[] order = new Integer[n];
+		int i = 0;
+		for (int h = 0; h < levels.length; h++) {
+			for (int j = 0; j < sizes[h]; j++) {
+				values[i] = levels[h][j];
+				weights[i] = 1L << h;
+				order[i] = i;
+				i++;
+			}
+		}
+		final double[] fValues = values;
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer arg0, Integer arg1) {
+				return Double.compare(fValues[arg0], fValues[arg1]);
+			}
+		});
+		long totalWeight = 0;
+		for (long weight : weights) {
+			totalWeight += weight;
+		}
+		double[] result = new double[fractions.length];
+		for (int f = 0; f < fractions.length; f++) {
+			if (fractions[f] <= 0) {
+				result[f] = min;
+				continue;
+			}
+			if (fractions[f] >= 1) {
+				result[f] = max;
+				continue;
+			}
+			final double target = fractions[f] * totalWeight;
+			long cumulative = 0;
+			result[f] = max;
+			for (int j = 0; j < n; j++) {
+				cumulative += weights[order[j]];
+				if (cumulative > target) {
+					result[f] = values[order[j]];
+					break;
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,119 @@
+package utils;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central source of randomness. Every random draw in the code comes from a stream handed out here, all derived from
+ * one root seed, so a run is reproduced by fixing the seed (setSeed, or the system property SEEDPROPERTY):
+ * newStream(): the next stream in sequence, for code that runs on one thread (experiments, sampling a file). The
+ * streams handed out depend on the order of the calls.
+ * stream(index) and stream(seed, index): the index-th stream of a seed, whatever else was handed out. For parallel
+ * work, where each worker, chunk or experiment cell takes the stream of its own index.
+ * Streams are SplitMixRandoms (the SplitMix64 generator of java.util.SplittableRandom, which Java 7 lacks): a
+ * Random, so it can be passed wherever one is taken, but not synchronized, so it must not be shared between threads
+ * (split it instead). Unlike Math.random(), which every thread contends on, streams cost nothing to share out.
+ */
+public class RandomStreams {
+	public final static String SEEDPROPERTY = "predictiveaqp.seed";
+	private final static long GOLDENGAMMA = 0x9E3779B97F4A7C15L;
+
+	private static volatile long rootSeed = Long.getLong(SEEDPROPERTY, mix64(System.nanoTime()));
+	private final static AtomicLong nextStream = new AtomicLong();
+
+	/**
+	 * Sets the root seed, and restarts the sequence of newStream.
+	 */
+	public static synchronized void setSeed (long seed) {
+		rootSeed = seed;
+		nextStream.set(0);
+	}
+
+	public static long seed () {
+		return rootSeed;
+	}
+
+	public static SplitMixRandom newStream () {
+		return stream(rootSeed, Long.MAX_VALUE - nextStream.getAndIncrement()); // Counts down, away from small indices.
+	}
+
+	public static SplitMixRandom stream (long index) {
+		return stream(rootSeed, index);
+	}
+
+	public static SplitMixRandom stream (long seed, long index) {
+		return new SplitMixRandom(mix64(seed + index * GOLDENGAMMA), mixGamma(mix64(seed ^ index) + GOLDENGAMMA));
+	}
+
+	/**
+	 * The SplitMix64 output function (Stafford's variant 13 of the MurmurHash3 finalizer).
+	 */
+	public static long mix64 (long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * An odd gamma with enough bit transitions, as SplittableRandom chooses them.
+	 */
+	private static long mixGamma (long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		final int transitions = Long.bitCount(z ^ (z >>> 1));
+		return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+
+	/**
+	 * SplitMix64: the state advances by gamma, and each output is mix64 of the state.
+	 */
+	public static class SplitMixRandom extends Random {
+		private static final long serialVersionUID = 1L;
+		private long state;
+		private long gamma;
+
+		public SplitMixRandom (long seed) {
+			this(mix64(seed), GOLDENGAMMA);
+		}
+
+		private SplitMixRandom (long state, long gamma) {
+			super(0L);
+			this.state = state;
+			this.gamma = gamma;
+		}
+
+		/**
+		 * A new stream, statistically independent of this one, e.g. for a worker thread.
+		 */
+		public SplitMixRandom split () {
+			return new SplitMixRandom(nextLong(), mixGamma(nextSeed()));
+		}
+
+		private long nextSeed () {
+			return state += gamma;
+		}
+
+		@Override
+		public synchronized void setSeed (long seed) {
+			// Also called by the Random constructor, whose seed the SplitMixRandom constructors then replace.
+			state = mix64(seed);
+			gamma = GOLDENGAMMA;
+		}
+
+		@Override
+		protected int next (int bits) {
+			return (int) (nextLong() >>> (64 - bits));
+		}
+
+		@Override
+		public long nextLong () {
+			return mix64(nextSeed());
+		}
+
+		@Override
+		public double nextDouble () {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+	}
+}